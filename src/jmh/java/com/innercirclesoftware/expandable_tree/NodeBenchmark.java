@@ -0,0 +1,114 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hot paths of {@link Node} over every {@link TreeShape}, tree size and share of collapsed nodes.
+ * Run with {@code ./gradlew jmh}, which also reports allocations through the GC profiler.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NodeBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+
+        @Param({"WIDE", "DEEP", "BALANCED", "RANDOM"})
+        public TreeShape shape;
+        @Param({"1000", "100000", "1000000", "5000000"})
+        public int size;
+        @Param({"0", "0.1", "0.5"})
+        public double collapseRatio;
+
+        int[] depths;
+        Node<Integer> root;
+        Node<Integer> equalRoot;
+        int[] positions; //random visible positions
+        List<Node<Integer>> parents; //random nodes with children, to toggle
+        int next = 0;
+
+        @Setup(Level.Trial)
+        public void build() {
+            depths = shape.depths(size, new Random(1));
+            root = TreeShape.build(depths, collapseRatio, new Random(2));
+            equalRoot = TreeShape.build(depths, collapseRatio, new Random(2));
+
+            Random random = new Random(3);
+            positions = new int[LOOKUPS];
+            int visible = root.size();
+            for (int i = 0; i < LOOKUPS; i++) positions[i] = visible == 0 ? 0 : random.nextInt(visible);
+
+            List<Node<Integer>> withChildren = new ArrayList<>();
+            root.visit((node, depth) -> {
+                if (node.directChildCount() > 0) withChildren.add(node);
+                return VisitResult.CONTINUE;
+            }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+            parents = new ArrayList<>(LOOKUPS);
+            for (int i = 0; i < LOOKUPS && !withChildren.isEmpty(); i++) parents.add(withChildren.get(random.nextInt(withChildren.size())));
+        }
+
+        int nextIndex() {
+            next = (next + 1) & (LOOKUPS - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public Node<Integer> get(Tree tree) {
+        return tree.root.get(tree.positions[tree.nextIndex()]);
+    }
+
+    @Benchmark
+    public void iterate(Tree tree, Blackhole blackhole) {
+        for (Node<Integer> node : tree.root) blackhole.consume(node);
+    }
+
+    @Benchmark
+    public void toggleThenRead(Tree tree, Blackhole blackhole) {
+        if (tree.parents.isEmpty()) return;
+        int index = tree.nextIndex();
+        tree.parents.get(index % tree.parents.size()).toggleExpanded();
+        int size = tree.root.size();
+        blackhole.consume(size);
+        if (size > 0) blackhole.consume(tree.root.get(tree.positions[index] % size));
+    }
+
+    @Benchmark
+    public Node<Integer> bulkLoad(Tree tree) {
+        TreeBuilder<Integer> builder = new TreeBuilder<>();
+        int[] depths = tree.depths;
+        for (int i = 0; i < depths.length; i++) builder.add(i, depths[i]);
+        return builder.build();
+    }
+
+    @Benchmark
+    public Node<Integer> copy(Tree tree) {
+        return tree.root.copy();
+    }
+
+    @Benchmark
+    public boolean equalTrees(Tree tree) {
+        return tree.root.equals(tree.equalRoot);
+    }
+
+    @Benchmark
+    public int hashCodeOfTree(Tree tree) {
+        return tree.root.hashCode();
+    }
+}
@@ -0,0 +1,75 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries of a {@link NodeSearchIndex}, on their own and right after a change to the tree, as typing into a filter box over
+ * a tree which keeps changing does
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NodeSearchIndexBenchmark {
+
+    private static final int QUERIES = 64;
+
+    @State(Scope.Benchmark)
+    public static class Index {
+
+        @Param({"RANDOM", "WIDE"})
+        public TreeShape shape;
+        @Param({"100000", "1000000"})
+        public int size;
+
+        Node<Integer> root;
+        NodeSearchIndex<Integer> index;
+        String[] queries; //a few hits each
+        List<Node<Integer>> parents;
+        int next = 0;
+
+        @Setup(Level.Trial)
+        public void build() {
+            root = TreeShape.build(shape.depths(size, new Random(1)), 0, new Random(2));
+            index = root.searchIndex(data -> "item " + data);
+
+            Random random = new Random(3);
+            queries = new String[QUERIES];
+            for (int i = 0; i < QUERIES; i++) queries[i] = "item " + random.nextInt(size);
+            parents = new ArrayList<>(QUERIES);
+            root.visit((node, depth) -> {
+                if (node.directChildCount() > 0 && parents.size() < QUERIES) parents.add(node);
+                return VisitResult.CONTINUE;
+            }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+        }
+
+        int nextIndex() {
+            next = (next + 1) & (QUERIES - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public List<Node<Integer>> search(Index index) {
+        return index.index.search(index.queries[index.nextIndex()]);
+    }
+
+    @Benchmark
+    public List<Node<Integer>> searchAfterChange(Index index) {
+        int i = index.nextIndex();
+        Node<Integer> parent = index.parents.get(i % index.parents.size());
+        parent.remove(parent.add(-i)); //changes the structure version twice, keeping the tree the same size
+        return index.index.search(index.queries[i]);
+    }
+}
@@ -0,0 +1,51 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Kotlin helpers in Nodes.kt. They build their results recursively with intermediate lists, so the larger trees are left out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NodesBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+
+        @Param({"WIDE", "DEEP", "BALANCED", "RANDOM"})
+        public TreeShape shape;
+        @Param({"1000", "100000"})
+        public int size;
+        @Param({"0", "0.1", "0.5"})
+        public double collapseRatio;
+
+        Node<Integer> root;
+
+        @Setup(Level.Trial)
+        public void build() {
+            root = TreeShape.build(shape.depths(size, new Random(1)), collapseRatio, new Random(2));
+        }
+    }
+
+    @Benchmark
+    public List<FlattenedNode<? extends Integer>> flatten(Tree tree) {
+        return NodesKt.flatten(tree.root);
+    }
+
+    @Benchmark
+    public Node<Long> map(Tree tree) {
+        return NodesKt.map(tree.root, Integer::longValue);
+    }
+}
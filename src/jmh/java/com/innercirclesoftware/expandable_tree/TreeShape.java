@@ -0,0 +1,95 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The shapes of the trees benchmarked, generated as pre-order depth lists so they can be built with a {@link TreeBuilder}
+ */
+public enum TreeShape {
+    /**
+     * every node is a child of the root
+     */
+    WIDE {
+        @Override
+        int[] depths(int size, @NotNull Random random) {
+            return new int[size];
+        }
+    },
+    /**
+     * chains of {@link #MAX_DEPTH} nodes, as the recursive methods like equals would overflow the stack on a single chain
+     */
+    DEEP {
+        @Override
+        int[] depths(int size, @NotNull Random random) {
+            int[] depths = new int[size];
+            for (int i = 0; i < size; i++) depths[i] = i % MAX_DEPTH;
+            return depths;
+        }
+    },
+    /**
+     * a complete tree where every node has {@link #BRANCHING} children
+     */
+    BALANCED {
+        @Override
+        int[] depths(int size, @NotNull Random random) {
+            //numbered breadth first, node i has its children from BRANCHING * (i + 1), walked in pre-order with a stack
+            int[] depths = new int[size];
+            int[] stack = new int[64];
+            int[] stackDepths = new int[64];
+            int top = 0;
+            for (int child = Math.min(BRANCHING, size) - 1; child >= 0; child--) {
+                stack[top] = child;
+                stackDepths[top++] = 0;
+            }
+            int index = 0;
+            while (top > 0) {
+                int node = stack[--top];
+                int depth = stackDepths[top];
+                depths[index++] = depth;
+                int first = BRANCHING * (node + 1);
+                for (int child = Math.min(first + BRANCHING, size) - 1; child >= first; child--) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                        stackDepths = Arrays.copyOf(stackDepths, top * 2);
+                    }
+                    stack[top] = child;
+                    stackDepths[top++] = depth + 1;
+                }
+            }
+            return depths;
+        }
+    },
+    /**
+     * each node at a random depth between the root and one below the previous node
+     */
+    RANDOM {
+        @Override
+        int[] depths(int size, @NotNull Random random) {
+            int[] depths = new int[size];
+            for (int i = 1; i < size; i++) depths[i] = Math.min(random.nextInt(depths[i - 1] + 2), MAX_DEPTH - 1);
+            return depths;
+        }
+    };
+
+    static final int MAX_DEPTH = 1_000;
+    static final int BRANCHING = 8;
+
+    /**
+     * @return the depth of every node in pre-order, below a root at depth -1
+     */
+    @NotNull
+    abstract int[] depths(int size, @NotNull Random random);
+
+    /**
+     * @param collapseRatio the chance of each node being collapsed
+     */
+    @NotNull
+    static Node<Integer> build(@NotNull int[] depths, double collapseRatio, @NotNull Random random) {
+        TreeBuilder<Integer> builder = new TreeBuilder<>();
+        for (int i = 0; i < depths.length; i++) builder.add(i, depths[i], random.nextDouble() >= collapseRatio);
+        return builder.build();
+    }
+}
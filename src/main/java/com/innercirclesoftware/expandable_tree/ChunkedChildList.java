@@ -0,0 +1,524 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The children of a very wide {@link Node}. A counted B+ tree where every chunk also caches the summed {@link Node#size()} of
+ * the children it holds, so inserting or removing in the middle, getting a child by index and finding the child holding a
+ * position are all logarithmic in the number of children.
+ * <p>
+ * Every child keeps a reference to the leaf holding it, which lets a child invalidate only the sums above it and lets
+ * {@link #indexOf(Object)} work without scanning.
+ */
+final class ChunkedChildList<T> extends AbstractList<Node<? extends T>> implements RandomAccess {
+
+    static final int CAPACITY = 64; //max children of a leaf and max chunks of a branch
+    private static final int BULK_FILL = CAPACITY * 3 / 4; //leave some room so the first inserts after a bulk load don't split
+    private static final int SUM_INVALIDATED = -1;
+
+    @NotNull
+    private Chunk root;
+    private int localIndex; //set by leafFor(), saves allocating a pair for the leaf and the index within it
+
+    ChunkedChildList(@NotNull Collection<? extends Node<? extends T>> children) {
+        this.root = bulkLoad(children.toArray(new Node<?>[0]));
+    }
+
+    @Override
+    public int size() {
+        return root.count;
+    }
+
+    @NotNull
+    @Override
+    @SuppressWarnings("unchecked")
+    public Node<? extends T> get(int index) {
+        checkIndex(index, size());
+        Chunk chunk = root;
+        while (chunk instanceof Branch) {
+            Branch branch = (Branch) chunk;
+            int i = 0;
+            while (index >= branch.chunks[i].count) index -= branch.chunks[i++].count;
+            chunk = branch.chunks[i];
+        }
+        return (Node<? extends T>) ((Leaf) chunk).children[index];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Node<? extends T> set(int index, @NotNull Node<? extends T> child) {
+        requireNonNull(child);
+        checkIndex(index, size());
+        Leaf leaf = leafFor(index);
+        int local = localIndex;
+        Node<? extends T> previous = (Node<? extends T>) leaf.children[local];
+        previous.setLeaf(null);
+        leaf.children[local] = child;
+        child.setLeaf(leaf);
+        for (Chunk chunk = leaf; chunk != null; chunk = chunk.parent) chunk.invalidate();
+        return previous;
+    }
+
+    @Override
+    public void add(int index, @NotNull Node<? extends T> child) {
+        requireNonNull(child);
+        if (index < 0 || index > size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+
+        //an index on the boundary of two chunks goes to the end of the first one
+        Chunk chunk = root;
+        while (chunk instanceof Branch) {
+            Branch branch = (Branch) chunk;
+            int i = 0;
+            while (i < branch.length - 1 && index > branch.chunks[i].count) index -= branch.chunks[i++].count;
+            chunk = branch.chunks[i];
+        }
+
+        Leaf leaf = (Leaf) chunk;
+        if (leaf.count == CAPACITY) {
+            Leaf right = split(leaf);
+            if (index > leaf.count) {
+                index -= leaf.count;
+                leaf = right;
+            }
+        }
+
+        System.arraycopy(leaf.children, index, leaf.children, index + 1, leaf.count - index);
+        leaf.children[index] = child;
+        child.setLeaf(leaf);
+        for (Chunk c = leaf; c != null; c = c.parent) {
+            c.count++;
+            c.invalidate();
+        }
+        modCount++;
+    }
+
+    @NotNull
+    @Override
+    @SuppressWarnings("unchecked")
+    public Node<? extends T> remove(int index) {
+        checkIndex(index, size());
+        Leaf leaf = leafFor(index);
+        int local = localIndex;
+        Node<? extends T> removed = (Node<? extends T>) leaf.children[local];
+        System.arraycopy(leaf.children, local + 1, leaf.children, local, leaf.count - local - 1);
+        leaf.children[leaf.count - 1] = null;
+        removed.setLeaf(null);
+        for (Chunk c = leaf; c != null; c = c.parent) {
+            c.count--;
+            c.invalidate();
+        }
+
+        if (leaf.count == 0 && leaf != root) {
+            if (leaf.previous != null) leaf.previous.next = leaf.next;
+            if (leaf.next != null) leaf.next.previous = leaf.previous;
+            removeChunk(leaf);
+        }
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        for (Leaf leaf = firstLeaf(); leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.count; i++) leaf.children[i].setLeaf(null);
+        }
+        root = new Leaf();
+        modCount++;
+    }
+
+    /**
+     * Identity based and logarithmic, as every child knows the leaf holding it
+     */
+    @Override
+    public int indexOf(@Nullable Object o) {
+        if (!(o instanceof Node)) return -1;
+        Leaf leaf = ((Node<?>) o).leaf();
+        if (leaf == null) return -1;
+
+        int index = 0;
+        while (leaf.children[index] != o) index++;
+        Chunk chunk = leaf;
+        while (chunk.parent != null) {
+            Branch parent = chunk.parent;
+            for (int i = 0; parent.chunks[i] != chunk; i++) index += parent.chunks[i].count;
+            chunk = parent;
+        }
+        return chunk == root ? index : -1; //the leaf belongs to another list
+    }
+
+    @Override
+    public int lastIndexOf(@Nullable Object o) {
+        return indexOf(o); //a node can only be held once
+    }
+
+    @Override
+    public boolean contains(@Nullable Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    /**
+     * Sorts by bulk loading the sorted children into a fresh tree, rather than setting every index one at a time
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void sort(@Nullable Comparator<? super Node<? extends T>> comparator) {
+        Node<? extends T>[] children = (Node<? extends T>[]) toArray(new Node<?>[0]);
+        Arrays.sort(children, comparator);
+        root = bulkLoad(children);
+        modCount++;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Node<? extends T>> iterator() {
+        return new Iterator<Node<? extends T>>() {
+
+            private final int expectedModCount = modCount;
+            @Nullable
+            private Leaf leaf = firstLeaf();
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (leaf != null && index >= leaf.count) {
+                    leaf = leaf.next;
+                    index = 0;
+                }
+                return leaf != null;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Node<? extends T> next() {
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                if (!hasNext()) throw new NoSuchElementException();
+                return (Node<? extends T>) requireNonNull(leaf).children[index++];
+            }
+        };
+    }
+
+    /**
+     * @return the summed {@link Node#size()} of all the children
+     */
+    int sizeSum() {
+        return root.sizeSum();
+    }
+
+    /**
+     * Find the child holding the given position, where 0 is the first position of the first child.
+     *
+     * @param position has to be less than {@link #sizeSum()}
+     * @return the index of the child in the high 32 bits and the position within that child in the low 32 bits
+     */
+    long locate(int position) {
+        int index = 0;
+        Chunk chunk = root;
+        while (chunk instanceof Branch) {
+            Branch branch = (Branch) chunk;
+            int i = 0;
+            while (position >= branch.chunks[i].sizeSum()) {
+                position -= branch.chunks[i].sizeSum;
+                index += branch.chunks[i++].count;
+            }
+            chunk = branch.chunks[i];
+        }
+
+        Leaf leaf = (Leaf) chunk;
+        int i = 0;
+        while (position >= leaf.children[i].size()) position -= leaf.children[i++].size();
+        return ((long) (index + i) << 32) | position;
+    }
+
+    /**
+     * @return the number of children plus their summed {@link Node#childCount()}
+     */
+    int descendantSum() {
+        return root.descendantSum();
+    }
+
+    /**
+     * Like {@link #locate(int)}, but for positions which include the nodes hidden by collapsed parents, where every child
+     * takes 1 + {@link Node#childCount()} positions.
+     */
+    long locateAll(int position) {
+        int index = 0;
+        Chunk chunk = root;
+        while (chunk instanceof Branch) {
+            Branch branch = (Branch) chunk;
+            int i = 0;
+            while (position >= branch.chunks[i].descendantSum()) {
+                position -= branch.chunks[i].descendantSum;
+                index += branch.chunks[i++].count;
+            }
+            chunk = branch.chunks[i];
+        }
+
+        Leaf leaf = (Leaf) chunk;
+        int i = 0;
+        while (position > leaf.children[i].childCount()) position -= 1 + leaf.children[i++].childCount();
+        return ((long) (index + i) << 32) | position;
+    }
+
+    /**
+     * @param child has to be held by this list
+     * @return the summed {@link Node#size()} of the children before the given child
+     */
+    int sizeSumBefore(@NotNull Node<?> child) {
+        Leaf leaf = requireNonNull(child.leaf());
+        int sum = 0;
+        for (int i = 0; leaf.children[i] != child; i++) sum += leaf.children[i].size();
+        for (Chunk chunk = leaf; chunk.parent != null; chunk = chunk.parent) {
+            Branch parent = chunk.parent;
+            for (int i = 0; parent.chunks[i] != chunk; i++) sum += parent.chunks[i].sizeSum();
+        }
+        return sum;
+    }
+
+    @NotNull
+    private Leaf leafFor(int index) {
+        Chunk chunk = root;
+        while (chunk instanceof Branch) {
+            Branch branch = (Branch) chunk;
+            int i = 0;
+            while (index >= branch.chunks[i].count) index -= branch.chunks[i++].count;
+            chunk = branch.chunks[i];
+        }
+        localIndex = index;
+        return (Leaf) chunk;
+    }
+
+    @NotNull
+    private Leaf firstLeaf() {
+        Chunk chunk = root;
+        while (chunk instanceof Branch) chunk = ((Branch) chunk).chunks[0];
+        return (Leaf) chunk;
+    }
+
+    /**
+     * Move the upper half of a full leaf into a new leaf which is inserted after it
+     */
+    @NotNull
+    private Leaf split(@NotNull Leaf leaf) {
+        Leaf right = new Leaf();
+        int half = leaf.count / 2;
+        int moved = leaf.count - half;
+        System.arraycopy(leaf.children, half, right.children, 0, moved);
+        Arrays.fill(leaf.children, half, leaf.count, null);
+        for (int i = 0; i < moved; i++) right.children[i].setLeaf(right);
+        leaf.count = half;
+        leaf.invalidate();
+        right.count = moved;
+
+        right.next = leaf.next;
+        right.previous = leaf;
+        if (leaf.next != null) leaf.next.previous = right;
+        leaf.next = right;
+
+        insertAfter(leaf, right);
+        return right;
+    }
+
+    @NotNull
+    private Branch split(@NotNull Branch branch) {
+        Branch right = new Branch();
+        int half = branch.length / 2;
+        int moved = branch.length - half;
+        System.arraycopy(branch.chunks, half, right.chunks, 0, moved);
+        Arrays.fill(branch.chunks, half, branch.length, null);
+        for (int i = 0; i < moved; i++) right.chunks[i].parent = right;
+        branch.length = half;
+        right.length = moved;
+        branch.recount();
+        right.recount();
+
+        insertAfter(branch, right);
+        return right;
+    }
+
+    private void insertAfter(@NotNull Chunk chunk, @NotNull Chunk sibling) {
+        Branch parent = chunk.parent;
+        if (parent == null) {
+            //the root was split, grow the tree by one level
+            parent = new Branch();
+            parent.chunks[0] = chunk;
+            parent.length = 1;
+            chunk.parent = parent;
+            root = parent;
+        } else if (parent.length == CAPACITY) {
+            Branch right = split(parent);
+            if (chunk.parent == right) parent = right;
+        }
+
+        int index = parent.indexOf(chunk);
+        System.arraycopy(parent.chunks, index + 1, parent.chunks, index + 2, parent.length - index - 1);
+        parent.chunks[index + 1] = sibling;
+        parent.length++;
+        sibling.parent = parent;
+        for (Branch branch = parent; branch != null; branch = branch.parent) branch.recount();
+    }
+
+    /**
+     * Remove an empty chunk, along with any branches which become empty. Counts don't change as the chunk was empty.
+     */
+    private void removeChunk(@NotNull Chunk chunk) {
+        Branch parent = requireNonNull(chunk.parent);
+        int index = parent.indexOf(chunk);
+        System.arraycopy(parent.chunks, index + 1, parent.chunks, index, parent.length - index - 1);
+        parent.chunks[--parent.length] = null;
+        chunk.parent = null;
+
+        if (parent != root) {
+            if (parent.length == 0) removeChunk(parent);
+        } else if (parent.length == 0) {
+            root = new Leaf();
+        } else if (parent.length == 1) {
+            //shrink the tree by one level
+            root = parent.chunks[0];
+            root.parent = null;
+        }
+    }
+
+    @NotNull
+    private static Chunk bulkLoad(@NotNull Node<?>[] children) {
+        List<Chunk> level = new ArrayList<>();
+        Leaf previous = null;
+        int start = 0;
+        do {
+            Leaf leaf = new Leaf();
+            leaf.count = Math.min(BULK_FILL, children.length - start);
+            System.arraycopy(children, start, leaf.children, 0, leaf.count);
+            for (int i = 0; i < leaf.count; i++) leaf.children[i].setLeaf(leaf);
+            leaf.previous = previous;
+            if (previous != null) previous.next = leaf;
+            previous = leaf;
+            level.add(leaf);
+            start += BULK_FILL;
+        } while (start < children.length);
+
+        while (level.size() > 1) {
+            List<Chunk> parents = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += BULK_FILL) {
+                Branch branch = new Branch();
+                branch.length = Math.min(BULK_FILL, level.size() - i);
+                for (int j = 0; j < branch.length; j++) {
+                    Chunk chunk = level.get(i + j);
+                    chunk.parent = branch;
+                    branch.chunks[j] = chunk;
+                }
+                branch.recount();
+                parents.add(branch);
+            }
+            level = parents;
+        }
+        return level.get(0);
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    abstract static class Chunk {
+
+        @Nullable
+        Branch parent;
+        int count; //number of children held in this chunk
+        int sizeSum = SUM_INVALIDATED; //summed size() of the children held in this chunk
+        int descendantSum = SUM_INVALIDATED; //the children held in this chunk plus their summed childCount()
+
+        abstract int sizeSum();
+
+        abstract int descendantSum();
+
+        final void invalidate() {
+            sizeSum = SUM_INVALIDATED;
+            descendantSum = SUM_INVALIDATED;
+        }
+    }
+
+    static final class Leaf extends Chunk {
+
+        @NotNull
+        final Node<?>[] children = new Node<?>[CAPACITY];
+        @Nullable
+        Leaf previous;
+        @Nullable
+        Leaf next;
+
+        @Override
+        int sizeSum() {
+            if (sizeSum != SUM_INVALIDATED) return sizeSum;
+            int sum = 0;
+            for (int i = 0; i < count; i++) sum += children[i].size();
+            return sizeSum = sum;
+        }
+
+        @Override
+        int descendantSum() {
+            if (descendantSum != SUM_INVALIDATED) return descendantSum;
+            int sum = count;
+            for (int i = 0; i < count; i++) sum += children[i].childCount();
+            return descendantSum = sum;
+        }
+
+        /**
+         * Called when the size of one of the children is invalidated. A chunk with an invalidated sum always has a parent with
+         * an invalidated sum, so we can stop at the first one with both sums invalidated.
+         */
+        void invalidateSum() {
+            for (Chunk chunk = this; chunk != null; chunk = chunk.parent) {
+                if (chunk.sizeSum == SUM_INVALIDATED && chunk.descendantSum == SUM_INVALIDATED) return;
+                chunk.invalidate();
+            }
+        }
+    }
+
+    static final class Branch extends Chunk {
+
+        @NotNull
+        final Chunk[] chunks = new Chunk[CAPACITY];
+        int length;
+
+        @Override
+        int sizeSum() {
+            if (sizeSum != SUM_INVALIDATED) return sizeSum;
+            int sum = 0;
+            for (int i = 0; i < length; i++) sum += chunks[i].sizeSum();
+            return sizeSum = sum;
+        }
+
+        @Override
+        int descendantSum() {
+            if (descendantSum != SUM_INVALIDATED) return descendantSum;
+            int sum = 0;
+            for (int i = 0; i < length; i++) sum += chunks[i].descendantSum();
+            return descendantSum = sum;
+        }
+
+        void recount() {
+            int count = 0;
+            for (int i = 0; i < length; i++) count += chunks[i].count;
+            this.count = count;
+            invalidate();
+        }
+
+        int indexOf(@NotNull Chunk chunk) {
+            int index = 0;
+            while (chunks[index] != chunk) index++;
+            return index;
+        }
+    }
+}
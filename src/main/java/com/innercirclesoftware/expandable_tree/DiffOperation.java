@@ -0,0 +1,104 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * One step of a {@link TreeDiff}, in visible positions. The positions of each operation are in the list as it is after
+ * applying the operations before it.
+ */
+public final class DiffOperation {
+
+    public enum Type {
+        /**
+         * count rows were inserted starting at position
+         */
+        INSERT,
+        /**
+         * count rows were removed starting at position
+         */
+        REMOVE,
+        /**
+         * the row at position was removed and inserted again at toPosition
+         */
+        MOVE,
+        /**
+         * count rows starting at position kept their key but their data or depth changed
+         */
+        CHANGE
+    }
+
+    @NotNull
+    private final Type type;
+    private final int position;
+    private final int count;
+    private final int toPosition;
+
+    private DiffOperation(@NotNull Type type, int position, int count, int toPosition) {
+        this.type = type;
+        this.position = position;
+        this.count = count;
+        this.toPosition = toPosition;
+    }
+
+    @NotNull
+    static DiffOperation insert(int position, int count) {
+        return new DiffOperation(Type.INSERT, position, count, -1);
+    }
+
+    @NotNull
+    static DiffOperation remove(int position, int count) {
+        return new DiffOperation(Type.REMOVE, position, count, -1);
+    }
+
+    @NotNull
+    static DiffOperation move(int fromPosition, int toPosition) {
+        return new DiffOperation(Type.MOVE, fromPosition, 1, toPosition);
+    }
+
+    @NotNull
+    static DiffOperation change(int position, int count) {
+        return new DiffOperation(Type.CHANGE, position, count, -1);
+    }
+
+    @NotNull
+    public Type getType() {
+        return type;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the position a moved row was inserted at, or -1 for the other types
+     */
+    public int getToPosition() {
+        return toPosition;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DiffOperation)) return false;
+        DiffOperation that = (DiffOperation) o;
+        return type == that.type && position == that.position && count == that.count && toPosition == that.toPosition;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, position, count, toPosition);
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        if (type == Type.MOVE) return "DiffOperation{MOVE from=" + position + ", to=" + toPosition + "}";
+        return "DiffOperation{" + type + " position=" + position + ", count=" + count + "}";
+    }
+}
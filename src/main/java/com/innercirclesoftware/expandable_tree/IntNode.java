@@ -0,0 +1,164 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A node whose data is an int kept in a primitive field, for trees carrying nothing but ids. It behaves like a
+ * {@code Node<Integer>}, but {@link #getInt()}, {@link #getInt(int)}, {@link #visitInts(IntVisitor, TraversalOrder, NodeScope)},
+ * equals and hashCode don't box. Only the generic methods like {@link #getData()} and comparators do.
+ * <p>
+ * Children added by data, like {@link #add(int)} and {@link #add(Integer)}, are IntNodes as well.
+ */
+public class IntNode extends Node<Integer> {
+
+    private int value;
+    private boolean root;
+
+    /**
+     * Create a root without data
+     */
+    public IntNode() {
+        super(true);
+        this.root = true;
+    }
+
+    public IntNode(int value) {
+        super(false);
+        this.value = value;
+        this.root = false;
+    }
+
+    /**
+     * @throws NullPointerException if this is a root without data
+     */
+    public int getInt() {
+        if (root) {
+            String msg = String.format("Root Node %s does not have data", this);
+            throw new NullPointerException(msg);
+        }
+        return value;
+    }
+
+    /**
+     * Replace the data. If the parent keeps its children sorted then this node is moved to its new ordered position
+     */
+    public void setInt(int value) {
+        beforeChange(false);
+        boolean hadValue = !root;
+        int previous = this.value;
+        this.value = value;
+        this.root = false;
+        //the previous value is only boxed when the parent has to reorder its children
+        dataChanged(hadValue && isKeptOrdered() ? previous : null);
+    }
+
+    /**
+     * @return the value of the visible node at the position, like {@link #get(int)} but without boxing for IntNode children
+     */
+    public int getInt(int position) {
+        return intValue(get(position));
+    }
+
+    /**
+     * Add a child for the value to the end of the children, or at its ordered position when this node has a comparator
+     *
+     * @return the created child
+     */
+    @NotNull
+    public IntNode add(int value) {
+        IntNode child = new IntNode(value);
+        add(child);
+        return child;
+    }
+
+    /**
+     * Visit the values of the nodes below this one, see {@link #visit(TreeVisitor, TraversalOrder, NodeScope)}
+     *
+     * @return false if the visitor stopped the traversal
+     */
+    public boolean visitInts(@NotNull IntVisitor visitor, @NotNull TraversalOrder order, @NotNull NodeScope scope) {
+        requireNonNull(visitor);
+        return visit((node, depth) -> visitor.visit(intValue(node), depth), order, scope);
+    }
+
+    /**
+     * @return the values of the visible nodes, in the order of their positions
+     */
+    @NotNull
+    public int[] toIntArray() {
+        int[] values = new int[size()];
+        int[] index = {0};
+        visitInts((value, depth) -> {
+            values[index[0]++] = value;
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.VISIBLE);
+        return values;
+    }
+
+    @NotNull
+    @Override
+    public Integer getData() {
+        return getInt();
+    }
+
+    @Override
+    public void setData(@NotNull Integer data) {
+        setInt(requireNonNull(data));
+    }
+
+    @Override
+    public boolean isRoot() {
+        return root;
+    }
+
+    @NotNull
+    @Override
+    Node<Integer> createChild(@NotNull Integer data) {
+        return new IntNode(data);
+    }
+
+    @NotNull
+    @Override
+    Node<Integer> emptyCopy() {
+        return root ? new IntNode() : new IntNode(value);
+    }
+
+    @Nullable
+    @Override
+    Object dataOrNull() {
+        return root ? null : value;
+    }
+
+    @Override
+    boolean hasSameData(@NotNull Node<?> other) {
+        if (!(other instanceof IntNode)) return super.hasSameData(other);
+        IntNode node = (IntNode) other;
+        return root == node.root && value == node.value;
+    }
+
+    @Override
+    int dataHashCode() {
+        return root ? 0 : Integer.hashCode(value);
+    }
+
+    private static int intValue(@NotNull Node<? extends Integer> node) {
+        return node instanceof IntNode ? ((IntNode) node).getInt() : node.getData();
+    }
+
+    /**
+     * Receives the values of {@link #visitInts(IntVisitor, TraversalOrder, NodeScope)}
+     */
+    @FunctionalInterface
+    public interface IntVisitor {
+
+        /**
+         * @param depth relative to the node being visited, where its first level is 0
+         * @return {@link VisitResult#SKIP_SUBTREE} to not visit the children of this node, {@link VisitResult#STOP} to end the traversal
+         */
+        @NotNull
+        VisitResult visit(int value, int depth);
+    }
+}
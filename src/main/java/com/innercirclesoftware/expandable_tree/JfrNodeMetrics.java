@@ -0,0 +1,112 @@
+package com.innercirclesoftware.expandable_tree;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Records the {@link NodeMetrics} as JFR events in the "Expandable Tree" category, to look at them next to the rest of a recording
+ * of a real session. Install it with {@code Node.setMetrics(new JfrNodeMetrics())}. Events are only created while they are enabled
+ * in the recording, and the frequent ones don't capture stack traces. Needs a JDK with JFR, 11 or 8u262 onwards.
+ */
+public final class JfrNodeMetrics implements NodeMetrics {
+
+    private static final String CATEGORY = "Expandable Tree";
+
+    @Override
+    public void sizeRecomputed(int children) {
+        SizeRecomputed event = new SizeRecomputed();
+        if (!event.isEnabled()) return;
+        event.children = children;
+        event.commit();
+    }
+
+    @Override
+    public void invalidated(int walked) {
+        Invalidated event = new Invalidated();
+        if (!event.isEnabled()) return;
+        event.walked = walked;
+        event.commit();
+    }
+
+    @Override
+    public void located(int visited) {
+        Located event = new Located();
+        if (!event.isEnabled()) return;
+        event.visited = visited;
+        event.commit();
+    }
+
+    @Override
+    public void flattened(int rows, long nanos) {
+        Flattened event = new Flattened();
+        if (!event.isEnabled()) return;
+        event.rows = rows;
+        event.time = nanos;
+        event.commit();
+    }
+
+    @Override
+    public void mapped(int nodes, long nanos) {
+        Mapped event = new Mapped();
+        if (!event.isEnabled()) return;
+        event.nodes = nodes;
+        event.time = nanos;
+        event.commit();
+    }
+
+    @Name("com.innercirclesoftware.expandable_tree.SizeRecomputed")
+    @Label("Size Recomputed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class SizeRecomputed extends Event {
+        @Label("Children")
+        int children;
+    }
+
+    @Name("com.innercirclesoftware.expandable_tree.Invalidated")
+    @Label("Sizes Invalidated")
+    @Description("The cached sizes of a node and its parents were invalidated by a change")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Invalidated extends Event {
+        @Label("Nodes Walked")
+        int walked;
+    }
+
+    @Name("com.innercirclesoftware.expandable_tree.Located")
+    @Label("Node Located")
+    @Description("A node was found by its position")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Located extends Event {
+        @Label("Nodes Visited")
+        int visited;
+    }
+
+    @Name("com.innercirclesoftware.expandable_tree.Flattened")
+    @Label("Tree Flattened")
+    @Category(CATEGORY)
+    static final class Flattened extends Event {
+        @Label("Rows")
+        int rows;
+        @Label("Time")
+        @Timespan
+        long time;
+    }
+
+    @Name("com.innercirclesoftware.expandable_tree.Mapped")
+    @Label("Tree Mapped")
+    @Category(CATEGORY)
+    static final class Mapped extends Event {
+        @Label("Nodes")
+        int nodes;
+        @Label("Time")
+        @Timespan
+        long time;
+    }
+}
@@ -0,0 +1,209 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One change recorded by a {@link NodeJournal}. Nodes are addressed by their path, the child index at each level below the top,
+ * as it was right before the change.
+ */
+public final class JournalEntry<T> {
+
+    public enum Type {
+        /**
+         * the subtree was added to the node at path as the child at index
+         */
+        ADD,
+        /**
+         * the node at path was removed
+         */
+        REMOVE,
+        /**
+         * the node at path was moved to be the child at index of the node at toPath, the index being counted after it was removed
+         */
+        MOVE,
+        SET_DATA,
+        SET_EXPANDED,
+        /**
+         * the children of the node at path were reordered, the child at each index being the one at permutation[index] before
+         */
+        REORDER,
+        /**
+         * all the children of the node at path were removed
+         */
+        CLEAR
+    }
+
+    private static final int[] NONE = new int[0];
+    private static final boolean[] NO_FLAGS = new boolean[0];
+
+    @NotNull
+    private final Type type;
+    @NotNull
+    private final int[] path;
+    private final int index;
+    @NotNull
+    private final int[] toPath;
+    @Nullable
+    private final T data;
+    private final boolean expanded;
+    @NotNull
+    private final int[] permutation;
+    @NotNull
+    private final List<T> subtreeData;
+    @NotNull
+    private final int[] subtreeDepths;
+    @NotNull
+    private final boolean[] subtreeExpanded;
+
+    private JournalEntry(@NotNull Type type, @NotNull int[] path, int index, @NotNull int[] toPath, @Nullable T data, boolean expanded,
+                         @NotNull int[] permutation, @NotNull List<T> subtreeData, @NotNull int[] subtreeDepths, @NotNull boolean[] subtreeExpanded) {
+        this.type = type;
+        this.path = path;
+        this.index = index;
+        this.toPath = toPath;
+        this.data = data;
+        this.expanded = expanded;
+        this.permutation = permutation;
+        this.subtreeData = subtreeData;
+        this.subtreeDepths = subtreeDepths;
+        this.subtreeExpanded = subtreeExpanded;
+    }
+
+    @NotNull
+    static <T> JournalEntry<T> add(@NotNull int[] path, int index, @NotNull List<T> data, @NotNull int[] depths, @NotNull boolean[] expanded) {
+        return new JournalEntry<>(Type.ADD, path, index, NONE, null, false, NONE, Collections.unmodifiableList(data), depths, expanded);
+    }
+
+    @NotNull
+    static <T> JournalEntry<T> remove(@NotNull int[] path) {
+        return new JournalEntry<>(Type.REMOVE, path, -1, NONE, null, false, NONE, Collections.emptyList(), NONE, NO_FLAGS);
+    }
+
+    @NotNull
+    static <T> JournalEntry<T> move(@NotNull int[] path, @NotNull int[] toPath, int index) {
+        return new JournalEntry<>(Type.MOVE, path, index, toPath, null, false, NONE, Collections.emptyList(), NONE, NO_FLAGS);
+    }
+
+    @NotNull
+    static <T> JournalEntry<T> setData(@NotNull int[] path, @NotNull T data) {
+        return new JournalEntry<>(Type.SET_DATA, path, -1, NONE, data, false, NONE, Collections.emptyList(), NONE, NO_FLAGS);
+    }
+
+    @NotNull
+    static <T> JournalEntry<T> setExpanded(@NotNull int[] path, boolean expanded) {
+        return new JournalEntry<>(Type.SET_EXPANDED, path, -1, NONE, null, expanded, NONE, Collections.emptyList(), NONE, NO_FLAGS);
+    }
+
+    @NotNull
+    static <T> JournalEntry<T> reorder(@NotNull int[] path, @NotNull int[] permutation) {
+        return new JournalEntry<>(Type.REORDER, path, -1, NONE, null, false, permutation, Collections.emptyList(), NONE, NO_FLAGS);
+    }
+
+    @NotNull
+    static <T> JournalEntry<T> clear(@NotNull int[] path) {
+        return new JournalEntry<>(Type.CLEAR, path, -1, NONE, null, false, NONE, Collections.emptyList(), NONE, NO_FLAGS);
+    }
+
+    @NotNull
+    public Type getType() {
+        return type;
+    }
+
+    @NotNull
+    public int[] getPath() {
+        return path.clone();
+    }
+
+    /**
+     * @return the child index of an added or moved node, or -1 for the other types
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the path of the new parent of a moved node, as it was before the move
+     */
+    @NotNull
+    public int[] getToPath() {
+        return toPath.clone();
+    }
+
+    /**
+     * @return the new data of {@link Type#SET_DATA}
+     */
+    @Nullable
+    public T getData() {
+        return data;
+    }
+
+    public boolean isExpanded() {
+        return expanded;
+    }
+
+    @NotNull
+    public int[] getPermutation() {
+        return permutation.clone();
+    }
+
+    /**
+     * @return the data of the added subtree in pre-order, its first node being the added one
+     */
+    @NotNull
+    public List<T> getSubtreeData() {
+        return subtreeData;
+    }
+
+    /**
+     * @return the depths of the added subtree in pre-order, the added node being at depth 0
+     */
+    @NotNull
+    public int[] getSubtreeDepths() {
+        return subtreeDepths.clone();
+    }
+
+    @NotNull
+    public boolean[] getSubtreeExpanded() {
+        return subtreeExpanded.clone();
+    }
+
+    /**
+     * @return a new copy of the added subtree
+     */
+    @SuppressWarnings("unchecked")
+    @NotNull
+    Node<T> buildSubtree() {
+        TreeBuilder<T> builder = new TreeBuilder<>();
+        for (int i = 0; i < subtreeData.size(); i++) builder.add(subtreeData.get(i), subtreeDepths[i], subtreeExpanded[i]);
+        Node<T> root = builder.build();
+        Node<T> subtree = (Node<T>) root.getDirectChild(0);
+        root.remove(subtree);
+        return subtree;
+    }
+
+    @NotNull
+    int[] path() {
+        return path;
+    }
+
+    @NotNull
+    int[] toPath() {
+        return toPath;
+    }
+
+    @NotNull
+    int[] permutation() {
+        return permutation;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "JournalEntry{" + type + " path=" + Arrays.toString(path) + (index == -1 ? "" : ", index=" + index) + "}";
+    }
+}
@@ -0,0 +1,164 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A node whose data is a long kept in a primitive field, for trees carrying nothing but ids. It behaves like a
+ * {@code Node<Long>}, but {@link #getLong()}, {@link #getLong(int)}, {@link #visitLongs(LongVisitor, TraversalOrder, NodeScope)},
+ * equals and hashCode don't box. Only the generic methods like {@link #getData()} and comparators do.
+ * <p>
+ * Children added by data, like {@link #add(long)} and {@link #add(Long)}, are LongNodes as well.
+ */
+public class LongNode extends Node<Long> {
+
+    private long value;
+    private boolean root;
+
+    /**
+     * Create a root without data
+     */
+    public LongNode() {
+        super(true);
+        this.root = true;
+    }
+
+    public LongNode(long value) {
+        super(false);
+        this.value = value;
+        this.root = false;
+    }
+
+    /**
+     * @throws NullPointerException if this is a root without data
+     */
+    public long getLong() {
+        if (root) {
+            String msg = String.format("Root Node %s does not have data", this);
+            throw new NullPointerException(msg);
+        }
+        return value;
+    }
+
+    /**
+     * Replace the data. If the parent keeps its children sorted then this node is moved to its new ordered position
+     */
+    public void setLong(long value) {
+        beforeChange(false);
+        boolean hadValue = !root;
+        long previous = this.value;
+        this.value = value;
+        this.root = false;
+        //the previous value is only boxed when the parent has to reorder its children
+        dataChanged(hadValue && isKeptOrdered() ? previous : null);
+    }
+
+    /**
+     * @return the value of the visible node at the position, like {@link #get(int)} but without boxing for LongNode children
+     */
+    public long getLong(int position) {
+        return longValue(get(position));
+    }
+
+    /**
+     * Add a child for the value to the end of the children, or at its ordered position when this node has a comparator
+     *
+     * @return the created child
+     */
+    @NotNull
+    public LongNode add(long value) {
+        LongNode child = new LongNode(value);
+        add(child);
+        return child;
+    }
+
+    /**
+     * Visit the values of the nodes below this one, see {@link #visit(TreeVisitor, TraversalOrder, NodeScope)}
+     *
+     * @return false if the visitor stopped the traversal
+     */
+    public boolean visitLongs(@NotNull LongVisitor visitor, @NotNull TraversalOrder order, @NotNull NodeScope scope) {
+        requireNonNull(visitor);
+        return visit((node, depth) -> visitor.visit(longValue(node), depth), order, scope);
+    }
+
+    /**
+     * @return the values of the visible nodes, in the order of their positions
+     */
+    @NotNull
+    public long[] toLongArray() {
+        long[] values = new long[size()];
+        int[] index = {0};
+        visitLongs((value, depth) -> {
+            values[index[0]++] = value;
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.VISIBLE);
+        return values;
+    }
+
+    @NotNull
+    @Override
+    public Long getData() {
+        return getLong();
+    }
+
+    @Override
+    public void setData(@NotNull Long data) {
+        setLong(requireNonNull(data));
+    }
+
+    @Override
+    public boolean isRoot() {
+        return root;
+    }
+
+    @NotNull
+    @Override
+    Node<Long> createChild(@NotNull Long data) {
+        return new LongNode(data);
+    }
+
+    @NotNull
+    @Override
+    Node<Long> emptyCopy() {
+        return root ? new LongNode() : new LongNode(value);
+    }
+
+    @Nullable
+    @Override
+    Object dataOrNull() {
+        return root ? null : value;
+    }
+
+    @Override
+    boolean hasSameData(@NotNull Node<?> other) {
+        if (!(other instanceof LongNode)) return super.hasSameData(other);
+        LongNode node = (LongNode) other;
+        return root == node.root && value == node.value;
+    }
+
+    @Override
+    int dataHashCode() {
+        return root ? 0 : Long.hashCode(value);
+    }
+
+    private static long longValue(@NotNull Node<? extends Long> node) {
+        return node instanceof LongNode ? ((LongNode) node).getLong() : node.getData();
+    }
+
+    /**
+     * Receives the values of {@link #visitLongs(LongVisitor, TraversalOrder, NodeScope)}
+     */
+    @FunctionalInterface
+    public interface LongVisitor {
+
+        /**
+         * @param depth relative to the node being visited, where its first level is 0
+         * @return {@link VisitResult#SKIP_SUBTREE} to not visit the children of this node, {@link VisitResult#STOP} to end the traversal
+         */
+        @NotNull
+        VisitResult visit(long value, int depth);
+    }
+}
@@ -3,11 +3,29 @@ package com.innercirclesoftware.expandable_tree;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.util.Objects.requireNonNull;
 
@@ -15,21 +33,43 @@ public class Node<T> implements Iterable<Node<T>> {
 
     //TODO we can probably remove this entirely -> when adding/removing we can determine the size by taking into account if the Node was/is a root
     //also have to account for expanded/collapsed
-    private static final int SIZE_INVALIDATED = -1;
+    static final int SIZE_INVALIDATED = -1;
+    //children are moved into a ChunkedChildList once there are more than WIDE_CHILDREN, and back into an ArrayList below NARROW_CHILDREN
+    static final int WIDE_CHILDREN = 1024;
+    static final int NARROW_CHILDREN = WIDE_CHILDREN / 4;
+
+    //shared by every node without children, so leaves don't allocate a list they'll never use
+    private static final List<?> NO_CHILDREN = Collections.emptyList();
+    private static final int INITIAL_CHILDREN_CAPACITY = 4;
+    //each cached aggregate takes its instance, its value over all nodes and its value over the visible nodes
+    private static final int AGGREGATE_SLOTS = 3;
+    //aggregates cached per node before the oldest is evicted, so a new instance on every query can't grow the cache
+    private static final int MAX_AGGREGATES = 8;
+    //null unless someone is measuring, so the hot paths only pay for a null check
+    @Nullable
+    private static NodeMetrics metrics = null;
+    //the lazy copies which may still share nodes, so while there are none changes don't look for lazy copies to finish
+    private static final Set<WeakReference<?>> unfinishedCopies = ConcurrentHashMap.newKeySet();
+    //where the references to lazy copies which were garbage collected end up, to take them out of unfinishedCopies
+    private static final ReferenceQueue<Node<?>> collectedCopies = new ReferenceQueue<>();
 
+    //most nodes are leaves, so the fields are kept to the few every node needs. Anything else goes in extras
     @NotNull
-    private final List<Node<? extends T>> children;
+    private List<Node<? extends T>> children;
     @Nullable
     private Node<? super T> parent = null; //will be null when it's the top most node
     @Nullable
     private T data; //will be null when it's the top most node
-    private boolean expanded = true;
+    @Nullable
+    private Extras<T> extras = null;
     private int size;
+    private int childCount = SIZE_INVALIDATED; //cached like size, but counting every node below this one
+    private boolean expanded = true;
 
     public Node() {
         this.data = null;
         this.size = 0;
-        this.children = new ArrayList<>();
+        this.children = noChildren();
     }
 
     public Node(@NotNull List<Node<? extends T>> children) {
@@ -49,7 +89,7 @@ public class Node<T> implements Iterable<Node<T>> {
 
         this.data = null;
         this.size = SIZE_INVALIDATED;
-        this.children = new ArrayList<>(children);
+        this.children = children.size() > WIDE_CHILDREN ? new ChunkedChildList<>(children) : new ArrayList<>(children);
         for (Node<? extends T> child : this.children) {
             child.parent = this;
             child.size = SIZE_INVALIDATED;
@@ -72,7 +112,7 @@ public class Node<T> implements Iterable<Node<T>> {
 
         this.data = null;
         this.size = SIZE_INVALIDATED;
-        this.children = new ArrayList<>();
+        this.children = new ArrayList<>(1);
         this.children.add(child);
         child.parent = this;
         child.size = SIZE_INVALIDATED;
@@ -81,7 +121,22 @@ public class Node<T> implements Iterable<Node<T>> {
     public Node(@NotNull T data) {
         this.data = requireNonNull(data);
         this.size = SIZE_INVALIDATED;
-        this.children = new ArrayList<>();
+        this.children = noChildren();
+    }
+
+    /**
+     * For subclasses keeping their data in a primitive field instead, which have to override everything reading the data
+     */
+    Node(boolean root) {
+        this.data = null;
+        this.size = root ? 0 : SIZE_INVALIDATED;
+        this.children = noChildren();
+    }
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private static <T> List<Node<? extends T>> noChildren() {
+        return (List<Node<? extends T>>) NO_CHILDREN;
     }
 
     //used to avoid recursion in equals where we take parents children and then compare the children's parents
@@ -89,13 +144,16 @@ public class Node<T> implements Iterable<Node<T>> {
         if (a == b) return true;
         if (a == null || b == null) return false;
 
-        return a.expanded == b.expanded && Objects.equals(a.data, b.data) && equalsExcludeChildren(a.parent, b.parent);
+        return a.expanded == b.expanded && a.hasSameData(b) && equalsExcludeChildren(a.parent, b.parent);
     }
 
     private static int hashExcludingChildren(@Nullable Node node) {
         if (node == null) return 0;
 
-        return Objects.hash(node.expanded, node.data, hashExcludingChildren(node.parent));
+        //the same as Objects.hash(expanded, data, parentHash) without boxing
+        int hash = 31 + Boolean.hashCode(node.expanded);
+        hash = 31 * hash + node.dataHashCode();
+        return 31 * hash + hashExcludingChildren(node.parent);
     }
 
     @Nullable
@@ -111,34 +169,100 @@ public class Node<T> implements Iterable<Node<T>> {
      */
     @NotNull
     public Node<T> add(@NotNull T data) {
-        Node<T> toAdd = new Node<>(requireNonNull(data));
+        Node<T> toAdd = createChild(requireNonNull(data));
         this.add(toAdd);
         return toAdd;
     }
 
+    /**
+     * Add to the end of the children, or at its ordered position when this node has a {@link #getComparator() comparator}
+     */
     public void add(@NotNull Node<? extends T> child) {
-        add(requireNonNull(child), children.size()); //add to the end of the list
+        requireNonNull(child);
+        beforeAdding(child);
+        if (getComparator() == null) {
+            insert(child, children.size()); //add to the end of the list
+            return;
+        }
+
+        if (child.isRoot()) {
+            TreeChangeListener listener = listener();
+            for (int i = 0; i < child.children.size(); i++) {
+                Node<? extends T> grandChild = child.children.get(i);
+                int index = insertionIndex(grandChild.getData());
+                addChild(index, grandChild);
+                if (listener != null) listener.added(this, index, grandChild);
+            }
+            invalidateStructure();
+        } else {
+            insert(child, insertionIndex(child.getData()));
+        }
     }
 
     /**
      * Adding a node will remove the reference to the current parent: so if you do someList.add(node) then node;s parent will now be someList
+     *
+     * @throws IllegalStateException if this node keeps its children ordered by a comparator
      */
     public void add(@NotNull Node<? extends T> node, int index) {
         requireNonNull(node);
+        if (getComparator() != null) {
+            String msg = String.format("Cannot add %s at index %s as %s keeps its children sorted", node, index, this);
+            throw new IllegalStateException(msg);
+        }
+
+        beforeAdding(node);
+        insert(node, index);
+    }
 
+    private void beforeAdding(@NotNull Node<? extends T> node) {
+        beforeChange(false);
+        if (node.isRoot()) node.beforeChange(true); //its children are taken from it
+    }
+
+    private void insert(@NotNull Node<? extends T> node, int index) {
+        TreeChangeListener listener = listener();
         if (node.isRoot()) {
             for (int i = 0; i < node.children.size(); i++) {
                 Node<? extends T> child = node.children.get(i);
-                child.parent = this;
-                child.size = SIZE_INVALIDATED;
-                this.children.add(index + i, child);
+                addChild(index + i, child);
+                if (listener != null) listener.added(this, index + i, child);
             }
         } else {
-            node.parent = this;
-            node.size = SIZE_INVALIDATED;
-            this.children.add(index, node);
+            addChild(index, node);
+            if (listener != null) listener.added(this, index, node);
         }
-        invalidateSize();
+        invalidateStructure();
+    }
+
+    private void addChild(int index, @NotNull Node<? extends T> child) {
+        child.parent = this;
+        child.size = SIZE_INVALIDATED;
+        TreeState childTree = child.tree();
+        if (childTree != null) { //no longer the top of a tree
+            requireNonNull(child.extras).tree = null;
+            childTree.detached(child);
+        }
+        if (children == NO_CHILDREN) children = new ArrayList<>(INITIAL_CHILDREN_CAPACITY);
+        children.add(index, child);
+        if (children.size() > WIDE_CHILDREN && !(children instanceof ChunkedChildList)) {
+            children = new ChunkedChildList<>(children);
+        }
+    }
+
+    /**
+     * Append a child for a {@link TreeBuilder} without invalidating anything, the builder sets the sizes once the subtree is complete
+     */
+    void appendBuilt(@NotNull Node<? extends T> child) {
+        addChild(children.size(), child);
+    }
+
+    /**
+     * Set the cached sizes computed by a {@link TreeBuilder}, the size is left invalidated for nodes hidden by a collapsed parent
+     */
+    void setBuiltSizes(int size, int childCount) {
+        this.size = size;
+        this.childCount = childCount;
     }
 
     /**
@@ -148,6 +272,25 @@ public class Node<T> implements Iterable<Node<T>> {
         return data == null;
     }
 
+    @NotNull
+    private Extras<T> extras() {
+        if (extras == null) extras = new Extras<>();
+        return extras;
+    }
+
+    /**
+     * @return the leaf holding this node when the parent's children are a {@link ChunkedChildList}
+     */
+    @Nullable
+    ChunkedChildList.Leaf leaf() {
+        return extras == null ? null : extras.leaf;
+    }
+
+    void setLeaf(@Nullable ChunkedChildList.Leaf leaf) {
+        if (leaf != null) extras().leaf = leaf;
+        else if (extras != null) extras.leaf = null;
+    }
+
     /**
      * @return true if this node has a parent where this node is a child of that parent
      */
@@ -156,11 +299,24 @@ public class Node<T> implements Iterable<Node<T>> {
     }
 
     private void remove(int index) {
-        Node<? extends T> toRemove = children.get(index);
+        beforeChange(true);
+        TreeChangeListener listener = listener();
+        if (listener != null) listener.removed(this, index);
+        detach(index);
+        invalidateStructure();
+    }
+
+    private void detach(int index) {
+        Node<? extends T> toRemove = children.remove(index);
         toRemove.parent = null;
         toRemove.size = SIZE_INVALIDATED;
-        children.remove(index);
-        invalidateSize();
+        if (children.size() < NARROW_CHILDREN && children instanceof ChunkedChildList) {
+            List<Node<? extends T>> narrow = new ArrayList<>(children);
+            for (Node<? extends T> child : narrow) child.setLeaf(null);
+            children = narrow;
+        } else if (children.isEmpty()) {
+            children = noChildren();
+        }
     }
 
     /**
@@ -168,7 +324,7 @@ public class Node<T> implements Iterable<Node<T>> {
      * @return the index of the removed root
      */
     public int remove(@NotNull Node<? extends T> child) {
-        int index = children.indexOf(requireNonNull(child));
+        int index = indexOf(requireNonNull(child));
         remove(index);
         return index;
     }
@@ -183,50 +339,305 @@ public class Node<T> implements Iterable<Node<T>> {
         return requireNonNull(data);
     }
 
+    /**
+     * Replace the data. If the parent keeps its children sorted then this node is moved to its new ordered position
+     */
     public void setData(@NotNull T data) {
-        this.data = requireNonNull(data);
+        requireNonNull(data);
+        beforeChange(false);
+        T previous = this.data;
+        this.data = data;
+        dataChanged(previous);
+    }
+
+    /**
+     * Update everything depending on the data after it was replaced
+     *
+     * @param previous the data before, only needed when {@link #isKeptOrdered()}, or null if this node didn't have any
+     */
+    void dataChanged(@Nullable T previous) {
+        //the parents of a node without cached values have none combined from it either, see computeAggregate
+        Node<?> node = this;
+        while (node != null && node.invalidateAggregates(true)) node = node.parent;
+        TreeChangeListener listener = listener();
+        if (listener != null) listener.dataSet(this, getData());
+
+        Node<? super T> parent = this.parent;
+        if (previous != null && isKeptOrdered()) requireNonNull(parent).reposition(this, previous);
+    }
+
+    /**
+     * @return true if the parent keeps its children ordered by their data
+     */
+    boolean isKeptOrdered() {
+        return parent != null && parent.getComparator() != null;
+    }
+
+    /**
+     * @return a new node for the data, to be added as a child of this one
+     */
+    @NotNull
+    Node<T> createChild(@NotNull T data) {
+        return new Node<>(data);
+    }
+
+    /**
+     * @return the data, or null for a root
+     */
+    @Nullable
+    Object dataOrNull() {
+        return data;
+    }
+
+    boolean hasSameData(@NotNull Node<?> other) {
+        return Objects.equals(dataOrNull(), other.dataOrNull());
+    }
+
+    int dataHashCode() {
+        return Objects.hashCode(dataOrNull());
+    }
+
+    @Nullable
+    public Comparator<? super T> getComparator() {
+        return extras == null ? null : extras.comparator;
+    }
+
+    /**
+     * Keep the direct children of this node ordered by their data. The current children are sorted straight away.
+     * Children with equal data keep the order they were added in.
+     *
+     * @param comparator the ordering of the children, or null to stop keeping the children sorted
+     */
+    public void setComparator(@Nullable Comparator<? super T> comparator) {
+        beforeChange(false);
+        if (comparator == null) {
+            if (extras != null) extras.comparator = null;
+            return;
+        }
+
+        extras().comparator = comparator;
+        sortChildren(listener());
+        reordered();
+    }
+
+    /**
+     * Sort the whole subtree, setting the comparator on every node in it. Sorting only reorders siblings so the cached sizes are kept.
+     */
+    public void sort(@NotNull Comparator<? super T> comparator) {
+        requireNonNull(comparator);
+        beforeChange(false);
+        TreeChangeListener listener = listener();
+        List<Node<? extends T>> stack = new ArrayList<>();
+        stack.add(this);
+        while (!stack.isEmpty()) {
+            sortChildren(stack.remove(stack.size() - 1), comparator, stack, listener);
+        }
+        reordered();
+    }
+
+    private static <T> void sortChildren(@NotNull Node<? extends T> node, @NotNull Comparator<? super T> comparator,
+                                         @NotNull List<Node<? extends T>> stack, @Nullable TreeChangeListener listener) {
+        node.beforeChangeBelow();
+        node.extras().comparator = comparator;
+        node.sortChildren(listener);
+        stack.addAll(node.children);
+    }
+
+    private void sortChildren(@Nullable TreeChangeListener listener) {
+        Comparator<? super T> comparator = requireNonNull(getComparator());
+        List<Node<? extends T>> before = listener == null || children.size() < 2 ? null : new ArrayList<>(children);
+        //List.sort is stable, so equal children keep their order
+        children.sort((a, b) -> comparator.compare(a.getData(), b.getData()));
+        invalidateAggregates(true);
+        if (before != null) listener.reordered(this, before);
+    }
+
+    /**
+     * Put the children in the given order, the child at each index being the one at permutation[index] before
+     */
+    void reorderChildren(@NotNull int[] permutation) {
+        beforeChange(false);
+        Map<Node<?>, Integer> ranks = new IdentityHashMap<>(permutation.length);
+        for (int i = 0; i < permutation.length; i++) {
+            if (permutation[i] >= 0 && permutation[i] < children.size()) ranks.put(children.get(permutation[i]), i);
+        }
+        if (permutation.length != children.size() || ranks.size() != children.size()) {
+            String msg = String.format("%s is not a permutation of the %d children of %s", Arrays.toString(permutation), children.size(), this);
+            throw new IllegalArgumentException(msg);
+        }
+
+        TreeChangeListener listener = listener();
+        List<Node<? extends T>> before = listener == null ? null : new ArrayList<>(children);
+        children.sort(Comparator.comparingInt(ranks::get));
+        if (before != null) listener.reordered(this, before);
+        reordered();
+    }
+
+    /**
+     * @return the index after the last child which is less or equal to the given data, so equal children keep their insertion order
+     */
+    private int insertionIndex(@NotNull T data) {
+        Comparator<? super T> comparator = requireNonNull(getComparator());
+        int low = 0;
+        int high = children.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(children.get(mid).getData(), data) <= 0) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Move the child whose data changed from previous to its ordered position. The parent's size doesn't change so nothing is invalidated.
+     */
+    private void reposition(@NotNull Node<? extends T> child, @NotNull T previous) {
+        Comparator<? super T> comparator = requireNonNull(getComparator());
+
+        //the children are still ordered by the previous data, so only the run of children equal to it has to be scanned
+        int low = 0;
+        int high = children.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Node<? extends T> candidate = children.get(mid);
+            if (candidate != child && comparator.compare(candidate.getData(), previous) < 0) low = mid + 1;
+            else high = mid;
+        }
+        int index = low;
+        while (children.get(index) != child) index++;
+
+        TreeChangeListener listener = listener();
+        int[] path = listener == null ? null : child.path();
+        children.remove(index);
+        int newIndex = insertionIndex(child.getData());
+        children.add(newIndex, child);
+        if (listener != null) listener.moved(child, path, path(), newIndex);
+        reordered();
     }
 
+    /**
+     * @return the visible node at the position. On a top node, the path to the last node found is kept so nearby positions
+     * are reached by stepping from it, which makes walking the positions one at a time cheap. The first call on a top node
+     * allocates that path, along with the state of the tree if nothing created it yet. Keeping the path makes this a write as
+     * much as a read, like the cached sizes are, so it needs the same guarding as the changes when several threads use the tree.
+     */
     @NotNull
     public Node<T> get(int position) {
-        if (position < 0) {
+        if (position < 0 || position >= size()) {
             throw new NodeIndexOutOfBoundsException(this, position);
         }
 
         try {
-            if (parent == null) {
-                int currentProgress = 0;
-                for (Node<? extends T> child : children) {
-                    int rootSize = child.size();
-                    if (position < currentProgress + rootSize) {
-                        //root has the given position, find it
-                        return (Node<T>) child.get(position - currentProgress);
-                    }
-                    currentProgress += rootSize;
-                }
-            } else {
-                if (position == 0) return this;
-                int currentPos = 1;
-                for (Node<? extends T> child : children) {
-                    if (position < currentPos + child.size()) {
-                        //specified child has it
-                        return (Node<T>) child.get(position - currentPos);
-                    }
-                    currentPos += child.size();
-                }
+            Node<?> cached = parent == null ? getCached(position) : null;
+            if (cached != null) return (Node<T>) cached;
+
+            //a node without a parent isn't part of the positions, otherwise it's at position 0
+            Node<?> node = this;
+            int visited = 1;
+            for (int offset = position; node.parent == null || offset > 0; visited++) {
+                if (node.parent != null) offset--;
+                long located = node.locate(offset);
+                node = node.children.get((int) (located >>> 32));
+                offset = (int) located;
             }
+            NodeMetrics metrics = Node.metrics;
+            if (metrics != null) metrics.located(visited);
+            return (Node<T>) node;
         } catch (NodeIndexOutOfBoundsException cause) {
             NodeIndexOutOfBoundsException exception = new NodeIndexOutOfBoundsException(this, position);
             exception.initCause(cause);
             throw exception;
         }
+    }
 
-        if (position >= size()) {
-            throw new NodeIndexOutOfBoundsException(this, position);
+    /**
+     * @return the node at the position if it's near the last one found on this top node, else null
+     */
+    @Nullable
+    private Node<?> getCached(int position) {
+        TreeState tree = treeState();
+        PositionCache cache = tree.positions;
+        if (cache == null) tree.positions = cache = new PositionCache(this, tree);
+
+        Node<?> cached = cache.get(position);
+        NodeMetrics metrics = Node.metrics;
+        if (cached != null && metrics != null) metrics.located(cache.visited());
+        return cached;
+    }
+
+    /**
+     * Call the consumer for every visible node in the positions [from, to), along with its depth. Rather than a {@link #get(int)}
+     * per position, this descends once to from and then walks forward, so it costs O(depth + (to - from)) and doesn't allocate per row.
+     */
+    public void forEachVisible(int from, int to, @NotNull VisibleNodeConsumer<T> consumer) {
+        requireNonNull(consumer);
+        int size = size();
+        if (from < 0 || from > size) throw new NodeIndexOutOfBoundsException(this, from);
+        if (to < from || to > size) throw new NodeIndexOutOfBoundsException(this, to);
+        if (from == to) return;
+
+        NodeCursor cursor = new NodeCursor(this, NodeScope.VISIBLE);
+        cursor.seek(from);
+        for (int position = from; ; ) {
+            consumer.accept((Node<T>) cursor.node(), cursor.depth());
+            if (++position == to) return;
+            cursor.next();
+        }
+    }
+
+    /**
+     * @return the visible nodes starting at position from, up to count of them. Fewer are returned when the end is reached.
+     * @see #forEachVisible(int, int, VisibleNodeConsumer)
+     */
+    @NotNull
+    public List<Node<T>> window(int from, int count) {
+        if (count < 0) throw new IllegalArgumentException("count can't be negative, was " + count);
+        int to = (int) Math.min((long) from + count, size());
+        List<Node<T>> window = new ArrayList<>(Math.max(to - from, 0));
+        forEachVisible(from, Math.max(to, from), (node, depth) -> window.add(node));
+        return window;
+    }
+
+    /**
+     * Find the direct child holding the given position, where 0 is the first position of the first child
+     *
+     * @return the index of the child in the high 32 bits and the position within that child in the low 32 bits
+     */
+    long locate(int position) {
+        if (children instanceof ChunkedChildList) return ((ChunkedChildList<T>) children).locate(position);
+        for (int i = 0; i < children.size(); i++) {
+            int childSize = children.get(i).size();
+            if (position < childSize) return ((long) i << 32) | position;
+            position -= childSize;
+        }
+        throw new NodeIndexOutOfBoundsException(this, position);
+    }
+
+    /**
+     * Like {@link #locate(int)}, but for positions which include the nodes hidden by collapsed parents
+     */
+    long locateAll(int position) {
+        if (children instanceof ChunkedChildList) return ((ChunkedChildList<T>) children).locateAll(position);
+        for (int i = 0; i < children.size(); i++) {
+            int childSize = 1 + children.get(i).childCount();
+            if (position < childSize) return ((long) i << 32) | position;
+            position -= childSize;
         }
+        throw new NodeIndexOutOfBoundsException(this, position);
+    }
 
-        //should never get to this point
-        throw new RuntimeException("Error finding node for position " + position + ", size is " + size());
+    /**
+     * @return the number of positions in the given scope, {@link #size()} for the visible nodes
+     */
+    public int size(@NotNull NodeScope scope) {
+        switch (requireNonNull(scope)) {
+            case VISIBLE:
+                return size();
+            case ALL:
+                return (parent == null ? 0 : 1) + childCount();
+            default:
+                throw new IllegalArgumentException("Unknown scope " + scope);
+        }
     }
 
     public int size() {
@@ -236,19 +647,29 @@ public class Node<T> implements Iterable<Node<T>> {
             //expanded
             if (isExpanded()) {
                 size = parent == null ? 0 : 1;
-                for (Node<? extends T> child : children) size += child.size();
+                if (children instanceof ChunkedChildList) size += ((ChunkedChildList<T>) children).sizeSum();
+                else for (Node<? extends T> child : children) size += child.size();
+                NodeMetrics metrics = Node.metrics;
+                if (metrics != null) metrics.sizeRecomputed(children.size());
                 return size;
             } else {
-                return size = 0;
+                return 0; //hidden by a collapsed parent, not cached as expanding the parent doesn't invalidate this node
             }
         } else {
             //not expanded
             if (parent == null) return size = 0; //root node, not expanded
             if (parent.isExpanded()) return size = 1; //child node with expanded parents
-            else return size = 0;//child with non-expanded parent
+            else return 0;//child with non-expanded parent, not cached for the same reason as above
         }
     }
 
+    /**
+     * @return whether this node itself is set to expanded, ignoring its parents
+     */
+    boolean isExpandedFlag() {
+        return expanded;
+    }
+
     public boolean isExpanded() {
         if (!expanded) return false; //if it's set to not expanded then immediately return false
         if (parent == null) return true; //root node
@@ -257,11 +678,88 @@ public class Node<T> implements Iterable<Node<T>> {
 
     public boolean setExpanded(boolean expanded) {
         if (this.expanded == expanded) return expanded;
+        beforeChange(false);
         this.expanded = expanded;
+        TreeChangeListener listener = listener();
+        if (listener != null) listener.expandedSet(this, expanded);
         invalidateSize();
         return expanded;
     }
 
+    /**
+     * @return the expansion of every node below this one, and of this node if it has a parent, as bits in pre-order
+     */
+    @NotNull
+    public BitSet saveExpansionState() {
+        BitSet state = new BitSet();
+        int[] index = {0};
+        visit((node, depth) -> {
+            if (node.expanded) state.set(index[0]);
+            index[0]++;
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+        return state;
+    }
+
+    /**
+     * Restore the expansion saved by {@link #saveExpansionState()} on a tree of the same shape, nodes past the saved ones are collapsed
+     */
+    public void restoreExpansionState(@NotNull BitSet state) {
+        requireNonNull(state);
+        int[] index = {0};
+        restoreExpansion(node -> state.get(index[0]++));
+    }
+
+    /**
+     * @return the expansion of every node below this one, and of this node if it has a parent, by the key of their data
+     */
+    @NotNull
+    public <K> Map<K, Boolean> saveExpansionState(@NotNull Function<? super T, ? extends K> key) {
+        requireNonNull(key);
+        Map<K, Boolean> state = new HashMap<>();
+        visit((node, depth) -> {
+            state.put(key.apply(node.getData()), node.expanded);
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+        return state;
+    }
+
+    /**
+     * Restore the expansion saved by {@link #saveExpansionState(Function)}, for example onto a rebuilt tree.
+     * Nodes whose key wasn't saved keep their expansion.
+     */
+    public <K> void restoreExpansionState(@NotNull Map<K, Boolean> state, @NotNull Function<? super T, ? extends K> key) {
+        requireNonNull(state);
+        requireNonNull(key);
+        restoreExpansion(node -> {
+            Boolean expanded = state.get(key.apply(node.getData()));
+            return expanded == null ? node.expanded : expanded;
+        });
+    }
+
+    /**
+     * Set the expansion of the whole subtree in one walk. Rather than invalidating the parents of every changed node,
+     * every size in the subtree is invalidated once, so they're all recomputed by the next size query.
+     */
+    private void restoreExpansion(@NotNull Predicate<Node<T>> expanded) {
+        beforeChange(false);
+        TreeChangeListener listener = listener();
+        visit((node, depth) -> {
+            node.beforeChangeBelow();
+            boolean value = expanded.test(node);
+            if (value != node.expanded) {
+                node.expanded = value;
+                if (listener != null) listener.expandedSet(node, value);
+            }
+            node.size = SIZE_INVALIDATED;
+            node.invalidateAggregates(false);
+            ChunkedChildList.Leaf leaf = node.leaf();
+            if (leaf != null) leaf.invalidateSum();
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+        invalidateSize();
+    }
+
     /**
      * @return Toggle expanded. Returns true if expanded, false if not expanded
      */
@@ -270,79 +768,853 @@ public class Node<T> implements Iterable<Node<T>> {
     }
 
     private void invalidateSize() {
-        this.size = SIZE_INVALIDATED;
-        if (this.parent != null) this.parent.invalidateSize();
+        invalidateSizeUntil(null, false);
     }
 
-    public void clear() {
-        invalidateSize();
-        for (Node<? extends T> node : children) {
-            node.parent = null;
-            node.invalidateSize();
-        }
-        children.clear();
+    /**
+     * Invalidate the sizes after a child was added or removed, which also changes the structure version of the tree
+     */
+    private void invalidateStructure() {
+        invalidateSizeUntil(null, true);
     }
 
-    public int childCount() {
-        int count = 0;
-        for (Node<? extends T> child : children) count += 1 + child.childCount();
-        return count;
+    /**
+     * Invalidate the size of this node and its parents, stopping before the given ancestor
+     *
+     * @param structural whether nodes were added, removed or moved, so the structure version of the top has to change
+     */
+    private void invalidateSizeUntil(@Nullable Node<?> ancestor, boolean structural) {
+        int walked = 0;
+        for (Node<?> node = this; node != null && node != ancestor; node = node.parent, walked++) {
+            node.size = SIZE_INVALIDATED;
+            node.childCount = SIZE_INVALIDATED;
+            ChunkedChildList.Leaf leaf = node.leaf();
+            if (leaf != null) leaf.invalidateSum();
+            node.invalidateAggregates(structural);
+            if (node.parent == null) node.sizesInvalidated(structural);
+        }
+        NodeMetrics metrics = Node.metrics;
+        if (metrics != null) metrics.invalidated(walked);
     }
 
     /**
-     * Replace this nodes place in the tree with the given node. Only possible when
-     * this instance has a parent. If it doesn't have a parent, then it's a root node (could be detached) and then the given node should be used instead
-     *
-     * @param node The node which should take this nodes place in the tree with
-     * @return True if the node we replaced with is part of the tree, false otherwise when
+     * Install the metrics told about the work done by every tree, or remove them with null. Install them before using the trees,
+     * or from the thread using them, as they aren't published to other threads.
      */
-    public boolean replaceWith(@NotNull Node<T> node) {
-        requireNonNull(node);
+    public static void setMetrics(@Nullable NodeMetrics metrics) {
+        Node.metrics = metrics;
+    }
 
-        Node<? super T> parent = getParent();
-        if (parent == null) return false; //if this node doesn't have a parent, then we can't replace it
-        int index = parent.indexOf(this);
-        parent.remove(index);
-        parent.add(node, index);
-        return true;
+    @Nullable
+    public static NodeMetrics getMetrics() {
+        return metrics;
     }
 
-    private int indexOf(@NotNull Node<? extends T> item) {
-        return children.indexOf(item);
+    /**
+     * Change the structure version of the tree this node is in, for changes which don't touch the sizes like sorting
+     */
+    private void reordered() {
+        Node<?> node = this;
+        for (; node.parent != null; node = node.parent) node.invalidateAggregates(true);
+        node.invalidateAggregates(true);
+        node.structureChanged();
     }
 
+    /**
+     * @return the aggregate over this node and all the nodes below it
+     */
     @NotNull
-    @Override
-    public Iterator<Node<T>> iterator() {
-        return new Iterator<Node<T>>() {
-
-            int position = 0;
+    public <A> A aggregate(@NotNull NodeAggregate<? super T, A> aggregate) {
+        return aggregate(aggregate, NodeScope.ALL);
+    }
 
-            @Override
-            public boolean hasNext() {
-                return position < size();
-            }
+    /**
+     * The aggregate is cached on every node it was computed for and invalidated along the parents on changes, so it's O(1) when
+     * nothing changed and otherwise only recomputes the invalidated nodes. {@link NodeScope#VISIBLE} combines the nodes which would
+     * be visible if this node was shown, ignoring whether its own parents are collapsed.
+     *
+     * @return the aggregate over this node and the nodes below it in the given scope, where a root without data counts as identity
+     */
+    @NotNull
+    public <A> A aggregate(@NotNull NodeAggregate<? super T, A> aggregate, @NotNull NodeScope scope) {
+        requireNonNull(aggregate);
+        int offset;
+        switch (requireNonNull(scope)) {
+            case ALL:
+                offset = 1;
+                break;
+            case VISIBLE:
+                offset = 2;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scope " + scope);
+        }
 
-            @Override
-            public Node<T> next() {
-                Node<T> node = get(position);
-                position++;
-                return node;
-            }
-        };
+        @SuppressWarnings("unchecked")
+        A cached = (A) cachedAggregate(aggregate, offset);
+        if (cached != null) return cached;
+        return computeAggregate(this, aggregate, offset);
     }
 
-    @Override
-    @NotNull
-    public String toString() {
-        return toString(data -> {
-            final String valueOf = String.valueOf(data);
-            return valueOf.replaceAll("\n", "\\n");
-        });
+    /**
+     * Drop the cached values of the aggregate from this node and every node below it, and from the parents which combined them
+     */
+    public void forgetAggregate(@NotNull NodeAggregate<? super T, ?> aggregate) {
+        requireNonNull(aggregate);
+        visit((node, depth) -> {
+            node.removeAggregate(aggregate);
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+        removeAggregate(aggregate);
+        removeAggregateFromParents(aggregate);
     }
 
     /**
-     * A convenience method which allows the data to have a custom toString
+     * Compute the aggregate bottom-up without recursion, only descending into the nodes which don't have a cached value. A node
+     * only gets a value once its children have one, so while a node has a value every node below it which it was combined from has
+     * one too. Removing a value therefore also removes it from the parents, and invalidating can stop at a node without values.
+     */
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private static <A> A computeAggregate(@NotNull Node<?> top, @NotNull NodeAggregate<?, A> nodeAggregate, int offset) {
+        NodeAggregate<Object, A> aggregate = (NodeAggregate<Object, A>) nodeAggregate;
+        boolean visibleOnly = offset == 2;
+        List<Node<?>> stack = new ArrayList<>();
+        stack.add(top);
+        while (!stack.isEmpty()) {
+            Node<?> node = stack.get(stack.size() - 1);
+            if (node.cachedAggregate(aggregate, offset) != null) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+
+            boolean childrenCached = true;
+            if (!visibleOnly || node.expanded) {
+                for (Node<?> child : node.children) {
+                    if (child.cachedAggregate(aggregate, offset) == null) {
+                        stack.add(child);
+                        childrenCached = false;
+                    }
+                }
+            }
+            if (!childrenCached) continue; //computed once the children are
+
+            stack.remove(stack.size() - 1);
+            A value = node.isRoot() ? aggregate.identity() : aggregate.lift(node.getData());
+            if (!visibleOnly || node.expanded) {
+                for (Node<?> child : node.children) value = aggregate.combine(value, (A) requireNonNull(child.cachedAggregate(aggregate, offset)));
+            }
+            node.cacheAggregate(aggregate, offset, value);
+        }
+        return (A) requireNonNull(top.cachedAggregate(aggregate, offset));
+    }
+
+    @Nullable
+    private Object cachedAggregate(@NotNull NodeAggregate<?, ?> aggregate, int offset) {
+        Object[] aggregates = extras == null ? null : extras.aggregates;
+        if (aggregates == null) return null;
+        for (int i = 0; i < aggregates.length; i += AGGREGATE_SLOTS) {
+            if (aggregates[i] == aggregate) return aggregates[i + offset];
+        }
+        return null;
+    }
+
+    private void cacheAggregate(@NotNull NodeAggregate<?, ?> aggregate, int offset, @NotNull Object value) {
+        Extras<T> extras = extras();
+        Object[] aggregates = extras.aggregates;
+        int length = 0;
+        if (aggregates != null) {
+            for (int i = 0; i < aggregates.length; i += AGGREGATE_SLOTS) {
+                if (aggregates[i] == aggregate) {
+                    aggregates[i + offset] = value;
+                    return;
+                }
+            }
+            length = aggregates.length;
+        }
+        if (aggregates == null) {
+            aggregates = new Object[AGGREGATE_SLOTS];
+        } else if (length < MAX_AGGREGATES * AGGREGATE_SLOTS) {
+            aggregates = Arrays.copyOf(aggregates, length + AGGREGATE_SLOTS);
+        } else {
+            NodeAggregate<?, ?> oldest = (NodeAggregate<?, ?>) aggregates[0];
+            length -= AGGREGATE_SLOTS;
+            System.arraycopy(aggregates, AGGREGATE_SLOTS, aggregates, 0, length);
+            Arrays.fill(aggregates, length, aggregates.length, null);
+            removeAggregateFromParents(oldest);
+        }
+        aggregates[length] = aggregate;
+        aggregates[length + offset] = value;
+        extras.aggregates = aggregates;
+    }
+
+    private void removeAggregateFromParents(@NotNull NodeAggregate<?, ?> aggregate) {
+        Node<?> node = parent;
+        while (node != null && node.removeAggregate(aggregate)) node = node.parent;
+    }
+
+    /**
+     * @return whether this node had the aggregate
+     */
+    private boolean removeAggregate(@NotNull NodeAggregate<?, ?> aggregate) {
+        Object[] aggregates = extras == null ? null : extras.aggregates;
+        if (aggregates == null) return false;
+        for (int i = 0; i < aggregates.length; i += AGGREGATE_SLOTS) {
+            if (aggregates[i] != aggregate) continue;
+            if (aggregates.length == AGGREGATE_SLOTS) {
+                extras.aggregates = null;
+            } else {
+                Object[] remaining = new Object[aggregates.length - AGGREGATE_SLOTS];
+                System.arraycopy(aggregates, 0, remaining, 0, i);
+                System.arraycopy(aggregates, i + AGGREGATE_SLOTS, remaining, i, aggregates.length - i - AGGREGATE_SLOTS);
+                extras.aggregates = remaining;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param all whether the values over all nodes changed too, and not only the ones over the visible nodes
+     * @return whether this node had any values cached
+     */
+    private boolean invalidateAggregates(boolean all) {
+        Object[] aggregates = extras == null ? null : extras.aggregates;
+        if (aggregates == null) return false;
+        boolean cached = false;
+        for (int i = 0; i < aggregates.length; i += AGGREGATE_SLOTS) {
+            cached |= aggregates[i + 1] != null || aggregates[i + 2] != null;
+            if (all) aggregates[i + 1] = null;
+            aggregates[i + 2] = null;
+        }
+        return cached;
+    }
+
+    private void structureChanged() {
+        TreeState tree = tree();
+        if (tree == null) return;
+        tree.structureVersion++;
+        tree.modCount++;
+    }
+
+    /**
+     * Called on the top node once the sizes below it were invalidated, which changes the positions
+     */
+    private void sizesInvalidated(boolean structural) {
+        TreeState tree = tree();
+        if (tree == null) return;
+        if (structural) tree.structureVersion++;
+        tree.modCount++;
+    }
+
+    /**
+     * Only needed by listeners. Each level looks the node up in its parent, scanning at most WIDE_CHILDREN children or searching
+     * a wider parent's chunks, so it's O(depth * WIDE_CHILDREN) at worst.
+     *
+     * @return the child index of this node and each of its parents below the top, starting at the top
+     */
+    @NotNull
+    int[] path() {
+        int depth = 0;
+        for (Node<?> node = this; node.parent != null; node = node.parent) depth++;
+        int[] path = new int[depth];
+        Node<?> node = this;
+        for (int i = depth - 1; i >= 0; i--) {
+            Node<?> parent = requireNonNull(node.parent);
+            path[i] = parent.indexOf(node);
+            node = parent;
+        }
+        return path;
+    }
+
+    /**
+     * @return the listener to tell about changes to the tree this node is in, if anything listens
+     */
+    @Nullable
+    private TreeChangeListener listener() {
+        if (!TreeState.anyListening()) return null;
+        TreeState tree = top().tree();
+        return tree == null || tree.listeners.isEmpty() ? null : tree;
+    }
+
+    /**
+     * Start recording the changes to this tree, or return the journal already recording them
+     *
+     * @throws IllegalStateException if this node isn't the top of its tree
+     */
+    @SuppressWarnings("unchecked")
+    @NotNull
+    public NodeJournal<T> startJournal() {
+        if (parent != null) {
+            String msg = String.format("Cannot journal %s as it's part of the tree of %s, journal the top instead", this, top());
+            throw new IllegalStateException(msg);
+        }
+        TreeState tree = treeState();
+        if (tree.journal == null) {
+            NodeJournal<T> journal = new NodeJournal<>();
+            tree.journal = journal;
+            tree.addListener(journal.recorder());
+        }
+        return (NodeJournal<T>) tree.journal;
+    }
+
+    /**
+     * @return the journal recording the changes to the tree this node is the top of, if any
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public NodeJournal<T> getJournal() {
+        TreeState tree = parent == null ? tree() : null;
+        return tree == null ? null : (NodeJournal<T>) tree.journal;
+    }
+
+    public void stopJournal() {
+        TreeState tree = parent == null ? tree() : null;
+        if (tree == null || tree.journal == null) return;
+        tree.removeListener(tree.journal.recorder());
+        tree.journal = null;
+    }
+
+    @NotNull
+    Node<?> top() {
+        Node<?> node = this;
+        while (node.parent != null) node = node.parent;
+        return node;
+    }
+
+    /**
+     * @return the state of the tree this node is the top of, if anything created it
+     */
+    @Nullable
+    TreeState tree() {
+        return extras == null ? null : extras.tree;
+    }
+
+    /**
+     * @return the state of the tree this node is the top of, created if needed
+     */
+    @NotNull
+    TreeState treeState() {
+        Extras<T> extras = extras();
+        if (extras.tree == null) extras.tree = new TreeState();
+        return extras.tree;
+    }
+
+    /**
+     * @return the interval labels of the whole tree this node is in, for answering ancestor queries in constant time.
+     * The labels are created on the first call and are rebuilt lazily after the structure of the tree changes.
+     */
+    @NotNull
+    public TreeLabels labels() {
+        Node<?> top = top();
+        TreeState tree = top.treeState();
+        if (tree.labels == null) tree.labels = new TreeLabels(top, tree);
+        return tree.labels;
+    }
+
+    /**
+     * Index the text of the data of every node below this one, kept up to date until the index is closed
+     *
+     * @throws IllegalStateException if this node isn't the top of its tree
+     */
+    @NotNull
+    public NodeSearchIndex<T> searchIndex(@NotNull Function<? super T, ? extends CharSequence> text) {
+        requireNonNull(text);
+        if (parent != null) {
+            String msg = String.format("Cannot index %s as it's part of the tree of %s, index the top instead", this, top());
+            throw new IllegalStateException(msg);
+        }
+        return new NodeSearchIndex<>(this, treeState(), text);
+    }
+
+    /**
+     * Expand every ancestor of this node so it's visible
+     *
+     * @return the position of this node in the top most node, or -1 if it's the top most node itself
+     */
+    public int reveal() {
+        Node<?> deepest = null;
+        TreeChangeListener listener = null;
+        for (Node<?> ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor.expanded) continue;
+            if (deepest == null) {
+                deepest = ancestor;
+                ancestor.beforeChange(false);
+                listener = ancestor.listener();
+            }
+            ancestor.expanded = true;
+            if (listener != null) listener.expandedSet(ancestor, true);
+        }
+        //the walk up from the deepest expanded ancestor invalidates the sizes of the others too
+        if (deepest != null) deepest.invalidateSize();
+        return position();
+    }
+
+    /**
+     * @return the position of this node in the top most node, so that top.get(position) returns this node,
+     * or -1 if this node is hidden by a collapsed parent or is the top most node itself
+     */
+    public int position() {
+        if (parent == null) return -1;
+        for (Node<?> ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            if (!ancestor.expanded) return -1;
+        }
+
+        int position = 0;
+        Node<?> node = this;
+        for (Node<?> parent = this.parent; parent != null; node = parent, parent = parent.parent) {
+            if (parent.parent != null) position++; //the parent itself comes before its children
+            position += parent.sizeBefore(node);
+        }
+        return position;
+    }
+
+    private int sizeBefore(@NotNull Node<?> child) {
+        if (children instanceof ChunkedChildList) return ((ChunkedChildList<?>) children).sizeSumBefore(child);
+        int size = 0;
+        for (Node<? extends T> sibling : children) {
+            if (sibling == child) return size;
+            size += sibling.size();
+        }
+        throw new IllegalArgumentException(child + " is not a child of " + this);
+    }
+
+    /**
+     * Move this node, along with its subtree, to the end of the given parent's children, or to its ordered position if the new parent
+     * keeps its children sorted.
+     *
+     * @see #moveTo(Node, int)
+     */
+    @NotNull
+    public NodeMove moveTo(@NotNull Node<? super T> newParent) {
+        requireNonNull(newParent);
+        int index = newParent.getComparator() == null ? newParent.children.size() - (parent == newParent ? 1 : 0) : -1;
+        return move(newParent, index);
+    }
+
+    /**
+     * Move this node, along with its subtree, to another parent in one step. Only the sizes of the old and the new parents are invalidated,
+     * which is cheaper than a {@link #remove(Node)} followed by an {@link #add(Node, int)}.
+     *
+     * @param newParent the parent to move to, which can be the current parent to reorder this node
+     * @param index     the index this node will have in the new parent's children
+     * @return the move, with the positions of this node before and after moving it
+     * @throws IllegalArgumentException if this is a root, or the new parent is in this node's subtree
+     * @throws IllegalStateException    if the new parent keeps its children sorted
+     */
+    @NotNull
+    public NodeMove moveTo(@NotNull Node<? super T> newParent, int index) {
+        requireNonNull(newParent);
+        if (newParent.getComparator() != null) {
+            String msg = String.format("Cannot move %s to index %s as %s keeps its children sorted", this, index, newParent);
+            throw new IllegalStateException(msg);
+        }
+
+        int size = newParent.children.size() - (parent == newParent ? 1 : 0);
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return move(newParent, index);
+    }
+
+    /**
+     * @param index the index in the new parent, or -1 to insert at the ordered position
+     */
+    @NotNull
+    private NodeMove move(@NotNull Node<? super T> newParent, int index) {
+        if (isRoot()) {
+            throw new IllegalArgumentException(String.format("Cannot move root %s, add it to a parent instead", this));
+        }
+
+        int newParentDepth = 0;
+        for (Node<?> ancestor = newParent; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor == this) {
+                String msg = String.format("Cannot move %s into its own subtree %s", this, newParent);
+                throw new IllegalArgumentException(msg);
+            }
+            newParentDepth++;
+        }
+
+        if (parent != null) parent.beforeChange(true);
+        newParent.beforeChange(false);
+        int fromPosition = position();
+        Node<?> oldTop = top();
+        Node<?> newTop = newParent.top();
+        TreeChangeListener oldListener = listener();
+        TreeChangeListener newListener = newTop == oldTop ? oldListener : newParent.listener();
+        //both paths as they are before the move, so a replica can find both nodes before moving
+        int[] toPath = newListener == null || newTop != oldTop ? null : newParent.path();
+        int[] path = toPath == null ? null : path();
+
+        Node<? super T> oldParent = this.parent;
+        int oldIndex = oldParent == null ? -1 : oldParent.indexOf(this);
+        if (oldParent != null) {
+            if (oldListener != null && toPath == null) oldListener.removed(oldParent, oldIndex); //moved out of this tree
+            oldParent.detach(oldIndex);
+        }
+
+        if (index == -1) index = newParent.insertionIndex(getData());
+        newParent.addChild(index, this);
+        if (toPath != null) newListener.moved(this, path, toPath, index);
+        else if (newListener != null) newListener.added(newParent, index, this); //moved in from another tree
+        Node<?> commonAncestor = commonAncestor(oldParent, newParent, newParentDepth);
+        newParent.invalidateSizeUntil(null, true);
+        if (oldParent != null) oldParent.invalidateSizeUntil(commonAncestor, true);
+        return new NodeMove(this, fromPosition, position());
+    }
+
+    @Nullable
+    private static Node<?> commonAncestor(@Nullable Node<?> a, @Nullable Node<?> b, int depthOfB) {
+        int depthOfA = 0;
+        for (Node<?> ancestor = a; ancestor != null; ancestor = ancestor.parent) depthOfA++;
+        for (; depthOfA > depthOfB; depthOfA--) a = requireNonNull(a).parent;
+        for (; depthOfB > depthOfA; depthOfB--) b = requireNonNull(b).parent;
+        //same depth, so both reach the top at the same time
+        while (a != b) {
+            a = requireNonNull(a).parent;
+            b = requireNonNull(b).parent;
+        }
+        return a;
+    }
+
+    public void clear() {
+        beforeChange(true);
+        TreeChangeListener listener = listener();
+        if (listener != null && !children.isEmpty()) listener.cleared(this);
+        invalidateStructure();
+        for (Node<? extends T> node : children) {
+            node.parent = null;
+            node.setLeaf(null);
+            node.invalidateSize();
+        }
+        children = noChildren();
+    }
+
+    /**
+     * @return the number of nodes below this one, including the ones hidden by collapsed nodes
+     */
+    public int childCount() {
+        if (childCount != SIZE_INVALIDATED) return childCount;
+        if (children instanceof ChunkedChildList) return childCount = ((ChunkedChildList<T>) children).descendantSum();
+
+        int count = 0;
+        for (Node<? extends T> child : children) count += 1 + child.childCount();
+        return childCount = count;
+    }
+
+    /**
+     * Replace this nodes place in the tree with the given node. Only possible when
+     * this instance has a parent. If it doesn't have a parent, then it's a root node (could be detached) and then the given node should be used instead
+     *
+     * @param node The node which should take this nodes place in the tree with
+     * @return True if the node we replaced with is part of the tree, false otherwise when
+     */
+    public boolean replaceWith(@NotNull Node<T> node) {
+        requireNonNull(node);
+
+        Node<? super T> parent = getParent();
+        if (parent == null) return false; //if this node doesn't have a parent, then we can't replace it
+        int index = parent.indexOf(this);
+        parent.remove(index);
+        if (parent.getComparator() != null) parent.add(node);
+        else parent.add(node, index);
+        return true;
+    }
+
+    /**
+     * Copy this node and its subtree in one walk, keeping the expansion, comparators and cached sizes. The data is shared, not copied.
+     *
+     * @return the copy, without a parent
+     */
+    @NotNull
+    public Node<T> copy() {
+        Node<T> copy = topCopy();
+        List<Node<?>> stack = new ArrayList<>(); //pairs of a node and its copy
+        stack.add(this);
+        stack.add(copy);
+        copyRemaining(stack);
+        return copy;
+    }
+
+    /**
+     * Copy this node, only copying each level of the subtree once the copy reads it. Until then the copy shares the nodes of this
+     * subtree, so it's finished by a deep copy before anything in this subtree changes, or before nodes are removed or moved out of
+     * the copy. Changing the data or the expansion of the copy, or adding to it, only copies the levels it touches.
+     * <p>
+     * Reading the copy changes it, so it can't be read from several threads at once until {@link #copy()} or a change finished it.
+     *
+     * @return the copy, without a parent
+     */
+    @NotNull
+    public Node<T> copyLazily() {
+        Node<T> copy = topCopy();
+        if (!hasChildren()) return copy;
+
+        copy.children = new LazyChildList<>(copy, this);
+        copy.extras().lazySource = this;
+        Extras<T> extras = extras();
+        if (extras.lazyCopies == null) extras.lazyCopies = new ArrayList<>(2);
+        else forgetCopies(extras.lazyCopies, null); //the ones which were garbage collected, so copying often doesn't grow the list
+        WeakReference<Node<T>> reference = new WeakReference<>(copy, collectedCopies);
+        unfinishedCopies.add(reference);
+        extras.lazyCopies.add(reference);
+        return copy;
+    }
+
+    /**
+     * @return a copy of this node without its children, its size left to be recomputed when it's cached for a parent the copy doesn't have
+     */
+    @NotNull
+    private Node<T> topCopy() {
+        Node<T> copy = shallowCopy();
+        if (parent != null) copy.size = SIZE_INVALIDATED;
+        return copy;
+    }
+
+    /**
+     * @return a copy of this node without its children
+     */
+    @NotNull
+    private Node<T> shallowCopy() {
+        Node<T> copy = emptyCopy();
+        copy.expanded = expanded;
+        copy.size = size;
+        copy.childCount = childCount;
+        Comparator<? super T> comparator = getComparator();
+        if (comparator != null) copy.extras().comparator = comparator;
+        return copy;
+    }
+
+    /**
+     * @return a new node with the same data and nothing else, of the same class for subclasses holding their data differently
+     */
+    @NotNull
+    Node<T> emptyCopy() {
+        return data == null ? new Node<>() : new Node<>(data);
+    }
+
+    /**
+     * Copy the children of source into this node, which is its copy. Each child with children of its own is pushed onto the stack with
+     * its copy, or when there's no stack its children are copied lazily.
+     */
+    private void copyChildren(@NotNull Node<? extends T> source, @Nullable List<Node<?>> stack) {
+        List<Node<? extends T>> copies = new ArrayList<>(source.children.size());
+        for (Node<? extends T> child : source.children) {
+            Node<? extends T> copy = copyChild(child, stack);
+            copy.parent = this;
+            copies.add(copy);
+        }
+        children = copies.size() > WIDE_CHILDREN ? new ChunkedChildList<>(copies) : copies;
+    }
+
+    @NotNull
+    private static <C> Node<C> copyChild(@NotNull Node<C> child, @Nullable List<Node<?>> stack) {
+        Node<C> copy = child.shallowCopy();
+        if (!child.hasChildren()) return copy;
+        if (stack == null) {
+            copy.children = new LazyChildList<>(copy, child);
+        } else {
+            stack.add(child);
+            stack.add(copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Copy the subtrees of the pairs of a node and its copy on the stack
+     */
+    @SuppressWarnings("unchecked")
+    private static void copyRemaining(@NotNull List<Node<?>> stack) {
+        while (!stack.isEmpty()) {
+            Node<Object> copy = (Node<Object>) stack.remove(stack.size() - 1);
+            Node<?> source = stack.remove(stack.size() - 1);
+            if (source.hasChildren()) copy.copyChildren(source, stack);
+        }
+    }
+
+    /**
+     * @return true if there are children, without copying them when they're still copied lazily
+     */
+    private boolean hasChildren() {
+        return children instanceof LazyChildList || !children.isEmpty();
+    }
+
+    /**
+     * Called before changing this node or its subtree, so lazy copies stop sharing the nodes which are about to change
+     *
+     * @param detaching whether nodes may leave the subtree, which finishes the lazy copies it's in as they only keep track of their own subtree
+     */
+    void beforeChange(boolean detaching) {
+        if (unfinishedCopies.isEmpty()) return;
+        for (Reference<?> reference; (reference = collectedCopies.poll()) != null; ) unfinishedCopies.remove(reference);
+        if (unfinishedCopies.isEmpty()) return;
+        for (Node<?> node = this; node != null; node = node.parent) {
+            Extras<?> extras = node.extras;
+            if (extras == null) continue;
+            if (extras.lazyCopies != null) node.finishLazyCopies();
+            if (detaching && extras.lazySource != null) node.finishLazyCopy();
+        }
+    }
+
+    /**
+     * Finish the lazy copies of this node, for changes to every node of a subtree. Those call {@link #beforeChange(boolean)} on the
+     * top of the subtree for its parents, and this on each node they visit before changing it.
+     */
+    private void beforeChangeBelow() {
+        if (extras != null && extras.lazyCopies != null) finishLazyCopies();
+    }
+
+    /**
+     * Finish the lazy copies of this node
+     */
+    private void finishLazyCopies() {
+        List<WeakReference<Node<T>>> copies = requireNonNull(extras).lazyCopies;
+        extras.lazyCopies = null;
+        for (WeakReference<Node<T>> reference : requireNonNull(copies)) {
+            unfinishedCopies.remove(reference);
+            Node<T> copy = reference.get();
+            if (copy != null && copy.extras != null && copy.extras.lazySource == this) copy.finishLazyCopy();
+        }
+    }
+
+    /**
+     * Copy the levels of this lazy copy which weren't copied yet, after which it no longer shares anything with its source
+     */
+    @SuppressWarnings("unchecked")
+    private void finishLazyCopy() {
+        Node<T> source = (Node<T>) requireNonNull(requireNonNull(extras).lazySource);
+        extras.lazySource = null;
+        List<WeakReference<Node<T>>> copies = source.extras == null ? null : source.extras.lazyCopies;
+        if (copies != null) {
+            forgetCopies(copies, this);
+            if (copies.isEmpty()) source.extras.lazyCopies = null;
+        }
+
+        List<Node<?>> nodes = new ArrayList<>();
+        nodes.add(this);
+        while (!nodes.isEmpty()) {
+            Node<?> node = nodes.remove(nodes.size() - 1);
+            if (node.children instanceof LazyChildList) {
+                ((LazyChildList<?>) node.children).copyAll();
+            } else {
+                nodes.addAll(node.children);
+            }
+        }
+    }
+
+    /**
+     * @return how many lazy copies may still share nodes with their source, in any tree
+     */
+    static int unfinishedLazyCopies() {
+        return unfinishedCopies.size();
+    }
+
+    /**
+     * Drop the references to the given copy and to the copies which were garbage collected
+     */
+    private static <T> void forgetCopies(@NotNull List<WeakReference<Node<T>>> copies, @Nullable Node<T> copy) {
+        for (Iterator<WeakReference<Node<T>>> iterator = copies.iterator(); iterator.hasNext(); ) {
+            WeakReference<Node<T>> reference = iterator.next();
+            Node<T> referent = reference.get();
+            if (referent != null && referent != copy) continue;
+            iterator.remove();
+            unfinishedCopies.remove(reference);
+        }
+    }
+
+    /**
+     * Identity based, as equal children would otherwise be mistaken for each other
+     */
+    int indexOf(@NotNull Node<?> item) {
+        if (children instanceof ChunkedChildList) return children.indexOf(item);
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i) == item) return i;
+        }
+        return -1;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Node<T>> iterator() {
+        return new Iterator<Node<T>>() {
+
+            int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return position < size();
+            }
+
+            @Override
+            public Node<T> next() {
+                Node<T> node = get(position);
+                position++;
+                return node;
+            }
+        };
+    }
+
+    /**
+     * Run the visitor over the nodes below this one, or this node and the nodes below it if this node has a parent. Runs without
+     * recursion and without allocating per node, which makes it the cheapest way to walk the whole tree including collapsed nodes.
+     *
+     * @return false if the visitor stopped the traversal
+     */
+    public boolean visit(@NotNull TreeVisitor<T> visitor, @NotNull TraversalOrder order, @NotNull NodeScope scope) {
+        return TreeWalker.walk(this, visitor, order, scope);
+    }
+
+    /**
+     * @return a spliterator over the visible nodes, which knows its exact size and splits evenly using the cached sizes
+     */
+    @NotNull
+    @Override
+    public Spliterator<Node<T>> spliterator() {
+        return spliterator(NodeScope.VISIBLE);
+    }
+
+    @NotNull
+    public Spliterator<Node<T>> spliterator(@NotNull NodeScope scope) {
+        return new NodeSpliterator<>(this, scope, 0, size(scope));
+    }
+
+    /**
+     * @return a stream of the visible nodes, in position order
+     */
+    @NotNull
+    public Stream<Node<T>> stream() {
+        return stream(NodeScope.VISIBLE);
+    }
+
+    @NotNull
+    public Stream<Node<T>> stream(@NotNull NodeScope scope) {
+        return StreamSupport.stream(spliterator(scope), false);
+    }
+
+    /**
+     * @return a parallel stream of the visible nodes. The tree mustn't be changed until the stream is done.
+     */
+    @NotNull
+    public Stream<Node<T>> parallelStream() {
+        return parallelStream(NodeScope.VISIBLE);
+    }
+
+    @NotNull
+    public Stream<Node<T>> parallelStream(@NotNull NodeScope scope) {
+        return StreamSupport.stream(spliterator(scope), true);
+    }
+
+    @Override
+    @NotNull
+    public String toString() {
+        return toString(data -> {
+            final String valueOf = String.valueOf(data);
+            return valueOf.replaceAll("\n", "\\n");
+        });
+    }
+
+    /**
+     * A convenience method which allows the data to have a custom toString
      */
     @NotNull
     public String toString(@NotNull final Function<T, String> dataToString) {
@@ -398,9 +1670,13 @@ public class Node<T> implements Iterable<Node<T>> {
         return children.get(i);
     }
 
+    /**
+     * @return a read only view of the direct children, which follows later changes. Use {@link #add(Node)} and {@link #remove(Node)}
+     * to change them
+     */
     @NotNull
     public List<Node<? extends T>> getChildren() {
-        return children;
+        return new ChildrenView();
     }
 
     @Override
@@ -412,12 +1688,155 @@ public class Node<T> implements Iterable<Node<T>> {
                 size() == node.size() && //size is cached -> calculate
                 children.equals(node.children) &&
                 Node.equalsExcludeChildren(parent, node.parent) &&
-                Objects.equals(data, node.data);
+                hasSameData(node);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(children, Node.hashExcludingChildren(parent), data, expanded, size);
+        //the same as Objects.hash(children, parentHash, data, expanded, size) without boxing
+        int hash = 31 + children.hashCode();
+        hash = 31 * hash + Node.hashExcludingChildren(parent);
+        hash = 31 * hash + dataHashCode();
+        hash = 31 * hash + Boolean.hashCode(expanded);
+        return 31 * hash + size;
+    }
+
+    /**
+     * The state only a few nodes need, allocated on first use
+     */
+    private static final class Extras<T> {
+
+        @Nullable
+        Comparator<? super T> comparator = null; //when set, the children are kept ordered by their data
+        @Nullable
+        ChunkedChildList.Leaf leaf = null; //the leaf holding the node when the parent's children are a ChunkedChildList
+        @Nullable
+        TreeState tree = null; //only for the top node of a tree
+        @Nullable
+        Object[] aggregates = null; //the cached aggregates, see AGGREGATE_SLOTS
+        @Nullable
+        List<WeakReference<Node<T>>> lazyCopies = null; //the lazy copies sharing the nodes of this subtree
+        @Nullable
+        Node<?> lazySource = null; //the node this lazy copy shares its unread levels with
+    }
+
+    /**
+     * Reads the children through the field on every access, as the list is replaced when the children get wide or narrow again
+     */
+    private final class ChildrenView extends AbstractList<Node<? extends T>> implements RandomAccess {
+
+        @Override
+        public Node<? extends T> get(int index) {
+            return children.get(index);
+        }
+
+        @Override
+        public int size() {
+            return children.size();
+        }
+
+        @NotNull
+        @Override
+        public Iterator<Node<? extends T>> iterator() {
+            return Collections.unmodifiableList(children).iterator();
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return children.indexOf(o);
+        }
+    }
+
+    /**
+     * The children of a lazy copy which weren't read yet, copied from the source's children when first used. Each copied child
+     * with children of its own gets a lazy list as well, so only the levels which are read get copied.
+     */
+    private static final class LazyChildList<T> extends AbstractList<Node<? extends T>> {
+
+        @NotNull
+        private final Node<T> owner;
+        @Nullable
+        private Node<? extends T> source; //until the children are copied
+
+        LazyChildList(@NotNull Node<T> owner, @NotNull Node<? extends T> source) {
+            this.owner = owner;
+            this.source = source;
+        }
+
+        /**
+         * @return the owner's current children, which replaced this list once they were copied
+         */
+        @NotNull
+        private List<Node<? extends T>> copied() {
+            Node<? extends T> source = this.source;
+            if (source != null) {
+                this.source = null;
+                owner.copyChildren(source, null);
+            }
+            return owner.children;
+        }
+
+        /**
+         * Copy the whole subtree rather than just the children
+         */
+        private void copyAll() {
+            Node<? extends T> source = requireNonNull(this.source);
+            this.source = null;
+            List<Node<?>> stack = new ArrayList<>();
+            owner.copyChildren(source, stack);
+            copyRemaining(stack);
+        }
+
+        @Override
+        public Node<? extends T> get(int index) {
+            return copied().get(index);
+        }
+
+        @Override
+        public int size() {
+            return copied().size();
+        }
+
+        @Override
+        public Node<? extends T> set(int index, Node<? extends T> element) {
+            return copied().set(index, element);
+        }
+
+        @Override
+        public void add(int index, Node<? extends T> element) {
+            copied().add(index, element);
+        }
+
+        @Override
+        public Node<? extends T> remove(int index) {
+            return copied().remove(index);
+        }
+
+        @NotNull
+        @Override
+        public Iterator<Node<? extends T>> iterator() {
+            return copied().iterator();
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return copied().indexOf(o);
+        }
+
+        @Override
+        public void sort(@Nullable Comparator<? super Node<? extends T>> c) {
+            copied().sort(c);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return copied().equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return copied().hashCode();
+        }
     }
 
     public static class NodeIndexOutOfBoundsException extends IndexOutOfBoundsException {
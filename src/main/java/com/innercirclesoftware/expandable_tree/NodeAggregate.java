@@ -0,0 +1,57 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A value combined over a subtree, like a count, a total or a maximum, queried with {@link Node#aggregate(NodeAggregate)}.
+ * It has to be a monoid: combine is associative and identity doesn't change what it's combined with. Values are combined in
+ * pre-order, so combine doesn't have to be commutative.
+ * <p>
+ * Nodes cache the values of the last few aggregate instances they were queried for, so keep using the same instance. A new
+ * instance on every query is recomputed every time and evicts the values of the others.
+ */
+public interface NodeAggregate<T, A> {
+
+    @NotNull
+    A identity();
+
+    /**
+     * @return the value of a single node
+     */
+    @NotNull
+    A lift(@NotNull T data);
+
+    @NotNull
+    A combine(@NotNull A left, @NotNull A right);
+
+    @NotNull
+    static <T, A> NodeAggregate<T, A> of(@NotNull A identity, @NotNull Function<? super T, ? extends A> lift, @NotNull BinaryOperator<A> combine) {
+        requireNonNull(identity);
+        requireNonNull(lift);
+        requireNonNull(combine);
+        return new NodeAggregate<T, A>() {
+            @NotNull
+            @Override
+            public A identity() {
+                return identity;
+            }
+
+            @NotNull
+            @Override
+            public A lift(@NotNull T data) {
+                return requireNonNull(lift.apply(data));
+            }
+
+            @NotNull
+            @Override
+            public A combine(@NotNull A left, @NotNull A right) {
+                return requireNonNull(combine.apply(left, right));
+            }
+        };
+    }
+}
@@ -0,0 +1,143 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Walks the nodes below a top node in position order, either only the visible ones or all of them. {@link #seek(int)} descends once using the cached sizes,
+ * after which {@link #next()} and {@link #previous()} step to the neighbouring positions. Next steps by moving to the first child, the next sibling or the
+ * next sibling of an ancestor, so walking n positions costs O(depth + n) instead of n descents from the top.
+ * <p>
+ * The path to the current node is held in arrays which are reused, so stepping doesn't allocate.
+ */
+final class NodeCursor {
+
+    @NotNull
+    private final Node<?> top;
+    private final boolean all; //include the nodes hidden by collapsed parents
+    private final boolean topCounted; //a top with a parent is at position 0, otherwise its children start at 0
+    @NotNull
+    private Node<?>[] path = new Node<?>[16]; //path[0] is the top, path[level] the current node
+    @NotNull
+    private int[] indexes = new int[16]; //indexes[level] is the index of path[level] in the children of path[level - 1]
+    @NotNull
+    private int[] starts = new int[16]; //starts[level] is the position of path[level], only kept up to date by seek
+    private int level = -1;
+
+    NodeCursor(@NotNull Node<?> top, @NotNull NodeScope scope) {
+        this.top = top;
+        this.all = scope == NodeScope.ALL;
+        this.topCounted = top.hasParent();
+    }
+
+    /**
+     * @param position has to be less than {@link Node#size(NodeScope)} of the top
+     */
+    void seek(int position) {
+        level = 0;
+        path[0] = top;
+        starts[0] = topCounted ? 0 : -1;
+        int remaining = position;
+        if (topCounted) {
+            if (remaining == 0) return;
+            remaining--;
+        }
+
+        Node<?> node = top;
+        while (true) {
+            long located = all ? node.locateAll(remaining) : node.locate(remaining);
+            int index = (int) (located >>> 32);
+            int remainder = (int) located;
+            node = node.getDirectChild(index);
+            push(node, index);
+            starts[level] = position - remainder;
+
+            if (remainder == 0) return; //the child itself
+            remaining = remainder - 1;
+        }
+    }
+
+    /**
+     * Step to the next visible position
+     *
+     * @return false when there are no more positions below the top, leaving the cursor unusable until the next seek
+     */
+    boolean next() {
+        Node<?> node = path[level];
+        if ((all || node.isExpandedFlag()) && node.directChildCount() > 0) {
+            push(node.getDirectChild(0), 0);
+            return true;
+        }
+
+        while (level > 0) {
+            Node<?> parent = path[level - 1];
+            int index = indexes[level] + 1;
+            if (index < parent.directChildCount()) {
+                path[level] = parent.getDirectChild(index);
+                indexes[level] = index;
+                return true;
+            }
+            path[level--] = null;
+        }
+        return false;
+    }
+
+    /**
+     * Step to the previous position, the last position in the subtree of the previous sibling or else the parent
+     *
+     * @return false when there is no previous position below the top, leaving the cursor unusable until the next seek
+     */
+    boolean previous() {
+        if (level == 0) return false;
+        int index = indexes[level];
+        if (index == 0) {
+            path[level--] = null;
+            return level > 0 || topCounted;
+        }
+
+        Node<?> node = path[level - 1].getDirectChild(index - 1);
+        path[level] = node;
+        indexes[level] = index - 1;
+        while ((all || node.isExpandedFlag()) && node.directChildCount() > 0) {
+            int last = node.directChildCount() - 1;
+            node = node.getDirectChild(last);
+            push(node, last);
+        }
+        return true;
+    }
+
+    @NotNull
+    Node<?> node() {
+        return path[level];
+    }
+
+    /**
+     * @return the depth of the current node, where the first visible level below the top is 0
+     */
+    int depth() {
+        return topCounted ? level : level - 1;
+    }
+
+    int level() {
+        return level;
+    }
+
+    /**
+     * @return the position of the node at the given level of the path to the current node, as of the last seek
+     */
+    int start(int level) {
+        return starts[level];
+    }
+
+    private void push(@NotNull Node<?> node, int index) {
+        level++;
+        if (level == path.length) {
+            path = Arrays.copyOf(path, level * 2);
+            indexes = Arrays.copyOf(indexes, level * 2);
+            starts = Arrays.copyOf(starts, level * 2);
+        }
+        path[level] = node;
+        indexes[level] = index;
+    }
+}
@@ -0,0 +1,253 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An append-only log of the changes made to a tree, started with {@link Node#startJournal()} on its top node, so a replica of the
+ * tree can be kept in sync by replaying the changes instead of copying the whole tree.
+ * <p>
+ * Nodes are addressed by their path from the top, so entries have to be replayed in order onto a replica which was equal to the
+ * tree when the journal was started, or when it was last drained. Sorting is recorded as the resulting order, so the replica
+ * shouldn't keep its own children sorted. A journal stops recording once its top node is added to another node.
+ */
+public final class NodeJournal<T> {
+
+    @NotNull
+    private final List<JournalEntry<T>> entries = new ArrayList<>();
+    @NotNull
+    private final TreeChangeListener recorder = new Recorder();
+
+    NodeJournal() {
+    }
+
+    @NotNull
+    TreeChangeListener recorder() {
+        return recorder;
+    }
+
+    /**
+     * @return a copy of the entries recorded so far
+     */
+    @NotNull
+    public List<JournalEntry<T>> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the entries recorded so far, after which the journal is empty
+     */
+    @NotNull
+    public List<JournalEntry<T>> drain() {
+        List<JournalEntry<T>> drained = new ArrayList<>(entries);
+        entries.clear();
+        return drained;
+    }
+
+    /**
+     * Drop the entries which don't change the result of replaying the journal: data and expansion changes overwritten before
+     * anything else changed, changes to nodes which were removed right after, and nodes added and removed again.
+     */
+    public void compact() {
+        List<JournalEntry<T>> compacted = new ArrayList<>(entries.size());
+        for (JournalEntry<T> entry : entries) {
+            switch (entry.getType()) {
+                case SET_DATA:
+                case SET_EXPANDED:
+                    //only the last data or expansion of a node counts while nothing moves the nodes around
+                    for (int i = compacted.size() - 1; i >= 0 && isAttributeChange(compacted.get(i)); i--) {
+                        JournalEntry<T> previous = compacted.get(i);
+                        if (previous.getType() == entry.getType() && Arrays.equals(previous.path(), entry.path())) {
+                            compacted.remove(i);
+                            break;
+                        }
+                    }
+                    compacted.add(entry);
+                    break;
+                case REMOVE:
+                case CLEAR:
+                    boolean removesNode = entry.getType() == JournalEntry.Type.REMOVE;
+                    int run = compacted.size();
+                    while (run > 0 && isAttributeChange(compacted.get(run - 1))) run--;
+                    for (int i = compacted.size() - 1; i >= run; i--) {
+                        int[] path = compacted.get(i).path();
+                        if (isBelow(entry.path(), path, removesNode)) compacted.remove(i);
+                    }
+
+                    //a node which was added and removed straight after doesn't need either
+                    if (removesNode && run == compacted.size() && run > 0) {
+                        JournalEntry<T> previous = compacted.get(run - 1);
+                        if (previous.getType() == JournalEntry.Type.ADD && isAddedAt(previous, entry.path())) {
+                            compacted.remove(run - 1);
+                            break;
+                        }
+                    }
+                    compacted.add(entry);
+                    break;
+                default:
+                    compacted.add(entry);
+            }
+        }
+        entries.clear();
+        entries.addAll(compacted);
+    }
+
+    private static boolean isAttributeChange(@NotNull JournalEntry<?> entry) {
+        return entry.getType() == JournalEntry.Type.SET_DATA || entry.getType() == JournalEntry.Type.SET_EXPANDED;
+    }
+
+    /**
+     * @param inclusive whether the ancestor itself counts
+     */
+    private static boolean isBelow(@NotNull int[] ancestor, @NotNull int[] path, boolean inclusive) {
+        if (path.length < ancestor.length || (!inclusive && path.length == ancestor.length)) return false;
+        for (int i = 0; i < ancestor.length; i++) {
+            if (path[i] != ancestor[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean isAddedAt(@NotNull JournalEntry<?> add, @NotNull int[] path) {
+        int[] parent = add.path();
+        return path.length == parent.length + 1 && isBelow(parent, path, true) && path[parent.length] == add.getIndex();
+    }
+
+    /**
+     * Apply the entries in order to the replica, which has to be equal to the journaled tree as it was before the first entry
+     *
+     * @throws IllegalArgumentException if a path doesn't exist in the replica
+     */
+    public static <T> void replay(@NotNull List<JournalEntry<T>> entries, @NotNull Node<T> replica) {
+        requireNonNull(replica);
+        for (JournalEntry<T> entry : requireNonNull(entries)) {
+            Node<T> node = resolve(replica, entry.path());
+            switch (entry.getType()) {
+                case ADD:
+                    node.add(entry.buildSubtree(), entry.getIndex());
+                    break;
+                case REMOVE:
+                    @SuppressWarnings("unchecked")
+                    Node<T> parent = (Node<T>) requireNonNull(node.getParent());
+                    parent.remove(node);
+                    break;
+                case MOVE:
+                    node.moveTo(resolve(replica, entry.toPath()), entry.getIndex());
+                    break;
+                case SET_DATA:
+                    node.setData(requireNonNull(entry.getData()));
+                    break;
+                case SET_EXPANDED:
+                    node.setExpanded(entry.isExpanded());
+                    break;
+                case REORDER:
+                    node.reorderChildren(entry.permutation());
+                    break;
+                case CLEAR:
+                    node.clear();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown entry " + entry);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private static <T> Node<T> resolve(@NotNull Node<T> replica, @NotNull int[] path) {
+        Node<T> node = replica;
+        for (int index : path) {
+            if (index < 0 || index >= node.directChildCount()) {
+                String msg = String.format("Path %s doesn't exist in %s", Arrays.toString(path), replica);
+                throw new IllegalArgumentException(msg);
+            }
+            node = (Node<T>) node.getDirectChild(index);
+        }
+        return node;
+    }
+
+    /**
+     * Records the changes to the tree into this journal
+     */
+    private final class Recorder implements TreeChangeListener {
+
+        @Override
+        public void added(@NotNull Node<?> parent, int index, @NotNull Node<?> child) {
+            List<T> data = new ArrayList<>();
+            int[][] depths = {new int[16]};
+            boolean[][] expanded = {new boolean[16]};
+            child.visit((node, depth) -> {
+                int i = data.size();
+                if (i == depths[0].length) {
+                    depths[0] = Arrays.copyOf(depths[0], i * 2);
+                    expanded[0] = Arrays.copyOf(expanded[0], i * 2);
+                }
+                data.add(cast(node.getData()));
+                depths[0][i] = depth;
+                expanded[0][i] = node.isExpandedFlag();
+                return VisitResult.CONTINUE;
+            }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+            int count = data.size();
+            entries.add(JournalEntry.add(parent.path(), index, data, Arrays.copyOf(depths[0], count), Arrays.copyOf(expanded[0], count)));
+        }
+
+        @Override
+        public void removed(@NotNull Node<?> parent, int index) {
+            entries.add(JournalEntry.remove(childPath(parent, index)));
+        }
+
+        @Override
+        public void moved(@NotNull Node<?> node, @NotNull int[] path, @NotNull int[] toPath, int index) {
+            entries.add(JournalEntry.move(path, toPath, index));
+        }
+
+        @Override
+        public void dataSet(@NotNull Node<?> node, @NotNull Object data) {
+            entries.add(JournalEntry.setData(node.path(), cast(data)));
+        }
+
+        @Override
+        public void expandedSet(@NotNull Node<?> node, boolean expanded) {
+            entries.add(JournalEntry.setExpanded(node.path(), expanded));
+        }
+
+        @Override
+        public void reordered(@NotNull Node<?> parent, @NotNull List<? extends Node<?>> before) {
+            Map<Node<?>, Integer> indexes = new IdentityHashMap<>(before.size());
+            for (int i = 0; i < before.size(); i++) indexes.put(before.get(i), i);
+            int[] permutation = new int[before.size()];
+            for (int i = 0; i < permutation.length; i++) permutation[i] = indexes.get(parent.getDirectChild(i));
+            entries.add(JournalEntry.reorder(parent.path(), permutation));
+        }
+
+        @Override
+        public void cleared(@NotNull Node<?> parent) {
+            entries.add(JournalEntry.clear(parent.path()));
+        }
+    }
+
+    @NotNull
+    private static int[] childPath(@NotNull Node<?> parent, int index) {
+        int[] parentPath = parent.path();
+        int[] path = Arrays.copyOf(parentPath, parentPath.length + 1);
+        path[parentPath.length] = index;
+        return path;
+    }
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private T cast(@NotNull Object data) {
+        return (T) data;
+    }
+}
@@ -0,0 +1,50 @@
+package com.innercirclesoftware.expandable_tree;
+
+/**
+ * Told about the work done on the hot paths of every tree, once installed with {@link Node#setMetrics(NodeMetrics)}, to find out
+ * whether slow frames come from size recomputation, deep lookups or long invalidation walks. {@link JfrNodeMetrics} records
+ * them as JFR events.
+ * <p>
+ * Without metrics installed the hot paths only check a static field, so leave them uninstalled when nobody is looking.
+ * The methods are called on the thread changing or reading the tree, so they should be cheap.
+ */
+public interface NodeMetrics {
+
+    /**
+     * An expanded node summed the sizes of its children again after its size was invalidated
+     *
+     * @param children the number of direct children whose sizes were summed
+     */
+    default void sizeRecomputed(int children) {
+    }
+
+    /**
+     * A change invalidated the cached sizes of a node and its parents
+     *
+     * @param walked the number of nodes invalidated
+     */
+    default void invalidated(int walked) {
+    }
+
+    /**
+     * {@link Node#get(int)} found a node
+     *
+     * @param visited the number of nodes descended through, the found one included
+     */
+    default void located(int visited) {
+    }
+
+    /**
+     * The flatten extension flattened a tree
+     */
+    default void flattened(int rows, long nanos) {
+    }
+
+    /**
+     * The map extension mapped a tree
+     *
+     * @param nodes the number of nodes below the mapped one
+     */
+    default void mapped(int nodes, long nanos) {
+    }
+}
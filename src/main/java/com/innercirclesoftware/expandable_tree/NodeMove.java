@@ -0,0 +1,55 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * A node which was moved by {@link Node#moveTo(Node, int)}, with its position in the top most node before and after the move.
+ * A position is -1 when the node was hidden by a collapsed parent.
+ */
+public final class NodeMove {
+
+    @NotNull
+    private final Node<?> node;
+    private final int fromPosition;
+    private final int toPosition;
+
+    NodeMove(@NotNull Node<?> node, int fromPosition, int toPosition) {
+        this.node = node;
+        this.fromPosition = fromPosition;
+        this.toPosition = toPosition;
+    }
+
+    @NotNull
+    public Node<?> getNode() {
+        return node;
+    }
+
+    public int getFromPosition() {
+        return fromPosition;
+    }
+
+    public int getToPosition() {
+        return toPosition;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof NodeMove)) return false;
+        NodeMove move = (NodeMove) o;
+        return fromPosition == move.fromPosition && toPosition == move.toPosition && node == move.node;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(System.identityHashCode(node), fromPosition, toPosition);
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "NodeMove{from=" + fromPosition + ", to=" + toPosition + "}";
+    }
+}
@@ -0,0 +1,17 @@
+package com.innercirclesoftware.expandable_tree;
+
+/**
+ * Which nodes a traversal of a {@link Node} goes through
+ */
+public enum NodeScope {
+
+    /**
+     * Only the nodes which aren't hidden by a collapsed parent, the same ones as {@link Node#get(int)}
+     */
+    VISIBLE,
+
+    /**
+     * Every node, including the ones hidden by a collapsed parent
+     */
+    ALL
+}
@@ -0,0 +1,355 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A case insensitive text index over the data of a whole tree, collapsed nodes included, created with
+ * {@link Node#searchIndex(Function)} on its top node. It's kept up to date as nodes are added, removed, moved or get new data,
+ * so a filter box doesn't have to scan every node on each keystroke. Use {@link Node#reveal()} to show a hit.
+ * <p>
+ * Queries of three or more characters match anywhere in the text, through an index of the character trigrams of every text.
+ * Shorter queries only match the start of the text, so one and two character prefixes are indexed instead of every pair.
+ * Removed nodes are only dropped from the trigrams by a rebuild once they outnumber the indexed ones.
+ * <p>
+ * The hits are put in tree order by their paths, so a query costs about the number of hits times their depth, however much
+ * the tree changed since the last one. Queries matching a large share of the tree are ordered by walking it instead.
+ */
+public final class NodeSearchIndex<T> {
+
+    private static final int MIN_REBUILD = 1024;
+    //results with more than this share of the indexed nodes are ordered by walking the tree rather than by their paths
+    private static final int WALK_SHARE = 8;
+    private static final int[] NO_PATH = new int[0];
+
+    @NotNull
+    private final Node<T> top;
+    @NotNull
+    private final TreeState tree;
+    @NotNull
+    private final Function<? super T, ? extends CharSequence> text;
+    @NotNull
+    private final TreeChangeListener updater = new Updater();
+
+    @NotNull
+    private final Map<Node<?>, Integer> ids = new IdentityHashMap<>();
+    private Node<?>[] nodes = new Node<?>[64]; //by id, null once removed
+    private String[] texts = new String[64]; //the folded text by id
+    private int nextId = 0;
+    private int removed = 0;
+    @NotNull
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private boolean open = true;
+
+    NodeSearchIndex(@NotNull Node<T> top, @NotNull TreeState tree, @NotNull Function<? super T, ? extends CharSequence> text) {
+        this.top = top;
+        this.tree = tree;
+        this.text = text;
+        indexChildren(top);
+        tree.addListener(updater);
+    }
+
+    /**
+     * @return the nodes whose text contains the query, or starts with it for queries shorter than three characters, in tree order
+     */
+    @NotNull
+    public List<Node<T>> search(@NotNull CharSequence query) {
+        return search(query, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the first limit nodes in tree order whose text contains the query, or starts with it for queries shorter than three
+     * characters
+     * @throws IllegalStateException if the index was closed or its top was attached to another node
+     */
+    @NotNull
+    public List<Node<T>> search(@NotNull CharSequence query, int limit) {
+        if (limit < 0) {
+            String msg = String.format("Limit %s cannot be negative", limit);
+            throw new IllegalArgumentException(msg);
+        }
+        ensureValid();
+        rebuildIfSparse();
+        String folded = fold(requireNonNull(query));
+        if (limit == 0) return Collections.emptyList();
+
+        int[] candidates;
+        int count;
+        if (folded.isEmpty()) {
+            candidates = null;
+            count = nextId;
+        } else {
+            Postings smallest = smallestPostings(folded);
+            if (smallest == null) return Collections.emptyList();
+            candidates = smallest.ids;
+            count = smallest.size;
+        }
+
+        int[] hits = new int[Math.min(count, 64)];
+        int hitCount = 0;
+        for (int i = 0; i < count; i++) {
+            int id = candidates == null ? i : candidates[i];
+            Node<?> node = nodes[id];
+            if (node == null) continue; //removed
+            String nodeText = texts[id];
+            boolean matches = folded.length() < 3 ? nodeText.startsWith(folded) : nodeText.contains(folded);
+            if (!matches) continue;
+
+            if (hitCount == hits.length) hits = Arrays.copyOf(hits, hitCount * 2);
+            hits[hitCount++] = id;
+        }
+        return hitCount > ids.size() / WALK_SHARE ? inWalkOrder(hits, hitCount, limit) : inPathOrder(hits, hitCount, limit);
+    }
+
+    /**
+     * Order the hits by their paths from the top, which only looks at their ancestors so it doesn't depend on the size of the tree
+     */
+    @NotNull
+    private List<Node<T>> inPathOrder(@NotNull int[] hits, int hitCount, int limit) {
+        Map<Node<?>, int[]> paths = new IdentityHashMap<>();
+        Integer[] order = new Integer[hitCount];
+        int[][] hitPaths = new int[hitCount][];
+        for (int i = 0; i < hitCount; i++) {
+            order[i] = i;
+            hitPaths[i] = path(nodes[hits[i]], paths);
+        }
+        Arrays.sort(order, (a, b) -> comparePaths(hitPaths[a], hitPaths[b]));
+
+        int size = Math.min(hitCount, limit);
+        List<Node<T>> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) result.add(cast(nodes[hits[order[i]]]));
+        return result;
+    }
+
+    /**
+     * Order the hits by walking the tree, for queries matching so much of it that walking is cheaper than sorting
+     */
+    @NotNull
+    private List<Node<T>> inWalkOrder(@NotNull int[] hits, int hitCount, int limit) {
+        BitSet hit = new BitSet(nextId);
+        for (int i = 0; i < hitCount; i++) hit.set(hits[i]);
+        int size = Math.min(hitCount, limit);
+        List<Node<T>> result = new ArrayList<>(size);
+        top.visit((node, depth) -> {
+            Integer id = ids.get(node);
+            if (id != null && hit.get(id)) result.add(node);
+            return result.size() == size ? VisitResult.STOP : VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+        return result;
+    }
+
+    /**
+     * @return the child indexes from the top down to the node, sharing the work for the ancestors already in paths
+     */
+    @NotNull
+    private static int[] path(@NotNull Node<?> node, @NotNull Map<Node<?>, int[]> paths) {
+        List<Node<?>> unknown = new ArrayList<>();
+        int[] path = NO_PATH;
+        for (Node<?> ancestor = node; ancestor.getParent() != null; ancestor = ancestor.getParent()) {
+            int[] known = paths.get(ancestor);
+            if (known != null) {
+                path = known;
+                break;
+            }
+            unknown.add(ancestor);
+        }
+        for (int i = unknown.size() - 1; i >= 0; i--) {
+            Node<?> child = unknown.get(i);
+            path = Arrays.copyOf(path, path.length + 1);
+            path[path.length - 1] = requireNonNull(child.getParent()).indexOf(child);
+            paths.put(child, path);
+        }
+        return path;
+    }
+
+    /**
+     * Pre-order, where an ancestor comes before its descendants
+     */
+    private static int comparePaths(@NotNull int[] a, @NotNull int[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) return Integer.compare(a[i], b[i]);
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    /**
+     * @return the number of nodes in the index
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Stop keeping the index up to date, after which it can't be searched
+     */
+    public void close() {
+        if (!open) return;
+        open = false;
+        tree.removeListener(updater);
+        ids.clear();
+        postings.clear();
+        nodes = new Node<?>[0];
+        texts = new String[0];
+    }
+
+    private void ensureValid() {
+        if (!open) throw new IllegalStateException("The search index was closed");
+        if (top.getParent() != null || top.tree() != tree) {
+            String msg = String.format("The search index of %s is no longer valid as it was attached to another node, create a new one", top);
+            throw new IllegalStateException(msg);
+        }
+    }
+
+    /**
+     * @return the shortest postings of the grams of the query, or null if any gram has none
+     */
+    private Postings smallestPostings(@NotNull String query) {
+        if (query.length() < 3) return postings.get(gram(query, 0, query.length()));
+
+        Postings smallest = null;
+        for (int i = 0; i + 3 <= query.length(); i++) {
+            Postings gram = postings.get(gram(query, i, 3));
+            if (gram == null) return null;
+            if (smallest == null || gram.size < smallest.size) smallest = gram;
+        }
+        return smallest;
+    }
+
+    private void indexChildren(@NotNull Node<?> parent) {
+        for (Node<?> child : parent.getChildren()) index(child);
+    }
+
+    private void index(@NotNull Node<?> subtree) {
+        subtree.visit((node, depth) -> {
+            indexNode(node);
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+    }
+
+    private void indexNode(@NotNull Node<?> node) {
+        String folded = fold(requireNonNull(text.apply(cast(node).getData())));
+        int id = nextId++;
+        if (id == nodes.length) {
+            nodes = Arrays.copyOf(nodes, id * 2);
+            texts = Arrays.copyOf(texts, id * 2);
+        }
+        nodes[id] = node;
+        texts[id] = folded;
+        ids.put(node, id);
+
+        if (folded.length() >= 1) post(gram(folded, 0, 1), id);
+        if (folded.length() >= 2) post(gram(folded, 0, 2), id);
+        for (int i = 0; i + 3 <= folded.length(); i++) post(gram(folded, i, 3), id);
+    }
+
+    private void post(long gram, int id) {
+        Postings list = postings.computeIfAbsent(gram, key -> new Postings());
+        if (list.size > 0 && list.ids[list.size - 1] == id) return; //repeated gram in the same text
+        list.add(id);
+    }
+
+    private void unindex(@NotNull Node<?> subtree) {
+        subtree.visit((node, depth) -> {
+            unindexNode(node);
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+    }
+
+    private void unindexNode(@NotNull Node<?> node) {
+        Integer id = ids.remove(node);
+        if (id == null) return;
+        nodes[id] = null;
+        texts[id] = null;
+        removed++;
+    }
+
+    /**
+     * Rebuild once removed nodes outnumber the indexed ones, only when searching as the listener is told before nodes are removed
+     */
+    private void rebuildIfSparse() {
+        if (removed < MIN_REBUILD || removed < ids.size()) return;
+        ids.clear();
+        postings.clear();
+        nodes = new Node<?>[Math.max(64, Integer.highestOneBit(Math.max(top.childCount(), 1)) * 2)];
+        texts = new String[nodes.length];
+        nextId = 0;
+        removed = 0;
+        indexChildren(top);
+    }
+
+    /**
+     * @return up to three characters packed with their count, so shorter prefixes don't collide with trigrams
+     */
+    private static long gram(@NotNull String text, int start, int length) {
+        long gram = length;
+        for (int i = 0; i < length; i++) gram = gram << 16 | text.charAt(start + i);
+        return gram;
+    }
+
+    @NotNull
+    private static String fold(@NotNull CharSequence text) {
+        StringBuilder folded = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) folded.append(Character.toLowerCase(text.charAt(i)));
+        return folded.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private Node<T> cast(@NotNull Node<?> node) {
+        return (Node<T>) node;
+    }
+
+    /**
+     * Ids of the texts containing a gram, in increasing order
+     */
+    private static final class Postings {
+
+        private int[] ids = new int[2];
+        private int size = 0;
+
+        private void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+
+    /**
+     * Keeps the index up to date with the changes to the tree
+     */
+    private final class Updater implements TreeChangeListener {
+
+        @Override
+        public void added(@NotNull Node<?> parent, int index, @NotNull Node<?> child) {
+            index(child);
+        }
+
+        @Override
+        public void removed(@NotNull Node<?> parent, int index) {
+            unindex(parent.getDirectChild(index));
+        }
+
+        @Override
+        public void dataSet(@NotNull Node<?> node, @NotNull Object data) {
+            if (!ids.containsKey(node)) return; //the top isn't indexed
+            unindexNode(node);
+            indexNode(node);
+        }
+
+        @Override
+        public void cleared(@NotNull Node<?> parent) {
+            for (Node<?> child : parent.getChildren()) unindex(child);
+        }
+    }
+}
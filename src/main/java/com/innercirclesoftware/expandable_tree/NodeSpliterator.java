@@ -0,0 +1,100 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Splits the positions [from, to) of a node in halves, moving the split point back to the start of the biggest subtree
+ * found near the middle, so that parallel streams get balanced work made of whole subtrees. Every half finds its first
+ * position with one descent using the cached sizes and then walks forward with a {@link NodeCursor}.
+ * <p>
+ * The sizes of the whole tree are computed when the spliterator is created, so the tasks of a parallel stream only ever read them.
+ */
+final class NodeSpliterator<T> implements Spliterator<Node<T>> {
+
+    private static final int CHARACTERISTICS = ORDERED | SIZED | SUBSIZED | NONNULL;
+
+    @NotNull
+    private final Node<?> top;
+    @NotNull
+    private final NodeScope scope;
+    private int position;
+    private final int to;
+    @Nullable
+    private NodeCursor cursor = null; //created on the first advance, at position - 1
+
+    NodeSpliterator(@NotNull Node<?> top, @NotNull NodeScope scope, int from, int to) {
+        this.top = requireNonNull(top);
+        this.scope = requireNonNull(scope);
+        this.position = from;
+        this.to = to;
+    }
+
+    @Override
+    public boolean tryAdvance(@NotNull Consumer<? super Node<T>> action) {
+        requireNonNull(action);
+        if (position >= to) return false;
+        action.accept(advance());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(@NotNull Consumer<? super Node<T>> action) {
+        requireNonNull(action);
+        while (position < to) action.accept(advance());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<T> advance() {
+        if (cursor == null) {
+            cursor = new NodeCursor(top, scope);
+            cursor.seek(position);
+        } else {
+            cursor.next();
+        }
+        position++;
+        return (Node<T>) cursor.node();
+    }
+
+    @Nullable
+    @Override
+    public Spliterator<Node<T>> trySplit() {
+        int remaining = to - position;
+        if (remaining < 2) return null;
+
+        int middle = position + remaining / 2;
+        int split = subtreeStartNear(middle, position + Math.max(1, remaining / 4));
+        Spliterator<Node<T>> prefix = new NodeSpliterator<>(top, scope, position, split);
+        position = split;
+        cursor = null;
+        return prefix;
+    }
+
+    /**
+     * @return the start of the shallowest subtree which holds the given position and starts no earlier than lowest,
+     * or the position itself if there isn't one
+     */
+    private int subtreeStartNear(int position, int lowest) {
+        NodeCursor cursor = new NodeCursor(top, scope);
+        cursor.seek(position);
+        for (int level = 1; level < cursor.level(); level++) {
+            if (cursor.start(level) >= lowest) return cursor.start(level);
+        }
+        return position;
+    }
+
+    @Override
+    public long estimateSize() {
+        return to - position;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+}
@@ -1,9 +1,40 @@
 package com.innercirclesoftware.expandable_tree
 
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.launch
+import java.util.Collections
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.coroutines.ContinuationInterceptor
+
 fun <From, To> Node<From>.map(mapper: (From) -> To): Node<To> {
+    val metrics = Node.getMetrics() ?: return mapRecursively(mapper)
+    val start = System.nanoTime()
+    val mapped = mapRecursively(mapper)
+    metrics.mapped(childCount(), System.nanoTime() - start)
+    return mapped
+}
+
+private fun <From, To> Node<From>.mapRecursively(mapper: (From) -> To): Node<To> {
     val mappedData: To? = if (isRoot.not()) mapper(this.data) else null
     val mappedNode: Node<To> = mappedData?.let { Node(it) } ?: Node()
-    val mappedChildren: List<Node<To>> = this.children.map { node -> node.map(mapper) }
+    val mappedChildren: List<Node<To>> = this.children.map { node -> node.mapRecursively(mapper) }
     mappedNode.add(Node(mappedChildren))
     return mappedNode
 }
@@ -29,9 +60,17 @@ fun <What> Node<What>.depth(): Int {
 }
 
 fun <What> Node<What>.flatten(): List<FlattenedNode<out What>> {
+    val metrics = Node.getMetrics() ?: return flattenRecursively()
+    val start = System.nanoTime()
+    val rows = flattenRecursively()
+    metrics.flattened(rows.size, System.nanoTime() - start)
+    return rows
+}
+
+private fun <What> Node<What>.flattenRecursively(): List<FlattenedNode<out What>> {
     if (this.isRoot) {
         //no data  so not interested in it concat map the children
-        return children.map { it.flatten() }.flatten()
+        return children.map { it.flattenRecursively() }.flatten()
     }
 
     val element = FlattenedNode(data, depth())
@@ -40,7 +79,7 @@ fun <What> Node<What>.flatten(): List<FlattenedNode<out What>> {
         return listOf(element)
     }
 
-    return listOf(element) + this.children.map { child -> child.flatten() }.flatten()
+    return listOf(element) + this.children.map { child -> child.flattenRecursively() }.flatten()
 }
 
 data class FlattenedNode<What>(val item: What, val depth: Int)
@@ -49,6 +88,15 @@ fun <What> List<Pair<What, Int>>.asDepthList(): List<FlattenedNode<What>> {
     return map { (what, depth) -> FlattenedNode(what, depth) }
 }
 
+/**
+ * Rebuild a tree from a depth list in one pass, the inverse of [flatten]. Nodes are expanded unless [isExpanded] says otherwise.
+ */
+fun <What : Any> List<FlattenedNode<out What>>.toTree(isExpanded: (FlattenedNode<out What>) -> Boolean = { true }): Node<What> {
+    val builder = TreeBuilder<What>()
+    for (node in this) builder.add(node.item, node.depth, isExpanded(node))
+    return builder.build()
+}
+
 fun <T> Node<T>.isLeaf(): Boolean {
     return !isRoot && children.isEmpty()
 }
@@ -64,4 +112,173 @@ fun <T> Node<out T>.getParents(): Sequence<Node<out Any>> {
 
 fun <T : Any> Node<T>.add(child: T, childConsumer: Node<T>.() -> Unit) {
     add(Node(child).apply(childConsumer))
-}
\ No newline at end of file
+}
+
+/**
+ * The visible rows at positions [from] until from + rows.size, out of the [size] visible positions of the node they were taken from
+ */
+data class VisibleWindow<What>(val from: Int, val rows: List<FlattenedNode<What>>, val size: Int)
+
+/**
+ * A snapshot of the visible rows in the range, clipped to the visible positions. Costs O(depth + window) rather than O(tree).
+ */
+fun <T : Any> Node<T>.visibleWindow(range: IntRange): VisibleWindow<T> {
+    val size = size()
+    val from = range.first.coerceIn(0, size)
+    val to = minOf(range.last.toLong() + 1, size.toLong()).toInt().coerceAtLeast(from)
+    val rows = ArrayList<FlattenedNode<T>>(to - from)
+    forEachVisible(from, to) { node, depth -> rows.add(FlattenedNode(node.data, depth)) }
+    return VisibleWindow(from, Collections.unmodifiableList(rows), size)
+}
+
+/**
+ * Emits a [visibleWindow] of the range when collected and again after the tree this node is in changes, skipping equal windows.
+ * A burst of changes made while a window is being built or consumed is conflated into one window. It follows the node into
+ * whichever tree it's part of when a window is built, so it keeps emitting after the node or its top is added to another tree.
+ *
+ * The windows are built in the collector's context, which has to be the one changing the tree as nodes aren't thread safe.
+ * Listeners are told about some changes before they're made, so each window is built in a task dispatched after the change,
+ * which is why the collector's dispatcher can't be [Dispatchers.Unconfined].
+ * Use flowOn with the tree's dispatcher to consume the windows elsewhere, like on the UI thread.
+ */
+fun <T : Any> Node<T>.visibleWindowFlow(range: IntRange): Flow<VisibleWindow<T>> {
+    require(range.first >= 0) { "Range $range cannot start before position 0" }
+    val node = this
+    return flow {
+        val context = currentCoroutineContext()
+        val dispatcher = context[ContinuationInterceptor] as? CoroutineDispatcher
+        check(dispatcher != null && dispatcher != Dispatchers.Unconfined) {
+            "Collect the windows of $node with the dispatcher changing the tree, which has to dispatch so they're built after each change"
+        }
+        val changes = MutableStateFlow(0)
+        val listener = object : TreeChangeListener {
+            private var signalling = false //whether a signal is dispatched and not run yet, so a burst only dispatches one
+            private val signal = Runnable {
+                signalling = false
+                changes.value = changes.value + 1
+            }
+
+            override fun added(parent: Node<*>, index: Int, child: Node<*>) = changed()
+            override fun removed(parent: Node<*>, index: Int) = changed()
+            override fun moved(node: Node<*>, path: IntArray, toPath: IntArray, index: Int) = changed()
+            override fun dataSet(node: Node<*>, data: Any) = changed()
+            override fun expandedSet(node: Node<*>, expanded: Boolean) = changed()
+            override fun reordered(parent: Node<*>, before: List<Node<*>>) = changed()
+            override fun cleared(parent: Node<*>) = changed()
+            override fun topAttached(top: Node<*>) = changed()
+
+            private fun changed() {
+                if (signalling) return
+                signalling = true
+                dispatcher.dispatch(context, signal)
+            }
+        }
+
+        var tree = node.top().treeState()
+        tree.addListener(listener)
+        try {
+            emitAll(changes.map {
+                val current = node.top().treeState()
+                if (current !== tree) { //the node or its top was added to another tree
+                    tree.removeListener(listener)
+                    tree = current
+                    tree.addListener(listener)
+                }
+                node.visibleWindow(range)
+            })
+        } finally {
+            tree.removeListener(listener)
+        }
+    }.distinctUntilChanged()
+}
+
+/**
+ * The [visibleWindowFlow] for Java callers. Windows are built and delivered on the executor, which has to be the one changing
+ * the tree. Each subscriber gets the latest window once it requests one, windows it didn't request in time are dropped.
+ */
+fun <T : Any> Node<T>.visibleWindowPublisher(from: Int, count: Int, executor: Executor): java.util.concurrent.Flow.Publisher<VisibleWindow<T>> {
+    require(count >= 0) { "count can't be negative, was $count" }
+    val windows = visibleWindowFlow(from until (from.toLong() + count).coerceAtMost(Int.MAX_VALUE.toLong()).toInt())
+    val dispatcher = executor.asCoroutineDispatcher()
+    return java.util.concurrent.Flow.Publisher { subscriber ->
+        val subscription = WindowSubscription(subscriber, executor)
+        subscriber.onSubscribe(subscription)
+        subscription.job = CoroutineScope(dispatcher).launch {
+            try {
+                windows.onEach { subscription.offer(it) }.collect()
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Throwable) {
+                subscription.fail(e)
+            }
+        }
+    }
+}
+
+/**
+ * Keeps only the latest window until the subscriber requests it. Signals are only sent on the executor, requests from other
+ * threads hand the drain over to it.
+ */
+private class WindowSubscription<T>(
+        private val subscriber: java.util.concurrent.Flow.Subscriber<in VisibleWindow<T>>,
+        private val executor: Executor
+) : java.util.concurrent.Flow.Subscription {
+
+    private val demand = AtomicLong()
+    private val latest = AtomicReference<VisibleWindow<T>?>()
+    private val draining = AtomicInteger()
+    @Volatile
+    private var error: Throwable? = null
+    @Volatile
+    private var done = false
+
+    @Volatile
+    var job: Job? = null
+        set(value) {
+            field = value
+            if (done) value?.cancel() //cancelled from onSubscribe
+        }
+
+    fun offer(window: VisibleWindow<T>) {
+        latest.set(window)
+        drain()
+    }
+
+    fun fail(cause: Throwable) {
+        error = cause
+        drain()
+    }
+
+    override fun request(n: Long) {
+        if (n <= 0) {
+            job?.cancel()
+            error = IllegalArgumentException("Requested $n windows, which has to be positive")
+        } else {
+            demand.getAndUpdate { current -> if (Long.MAX_VALUE - current < n) Long.MAX_VALUE else current + n }
+        }
+        executor.execute(::drain)
+    }
+
+    override fun cancel() {
+        done = true
+        job?.cancel()
+    }
+
+    private fun drain() {
+        if (draining.getAndIncrement() != 0) return
+        do {
+            while (!done) {
+                val cause = error
+                if (cause != null) {
+                    done = true
+                    subscriber.onError(cause)
+                    break
+                }
+                if (demand.get() == 0L) break
+                val window = latest.getAndSet(null) ?: break
+                if (demand.get() != Long.MAX_VALUE) demand.decrementAndGet()
+                subscriber.onNext(window)
+            }
+        } while (draining.decrementAndGet() != 0)
+    }
+}
@@ -0,0 +1,76 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Remembers the path to the node found by the last {@link Node#get(int)} on a top node, so looking up a nearby position steps
+ * from there in O(distance) instead of descending from the top again. Adapters binding rows tend to ask for position i,
+ * then i + 1 or i - 1.
+ * <p>
+ * The path is dropped whenever the sizes of the tree are invalidated or its children are reordered, tracked by
+ * {@link TreeState#modCount}.
+ * <p>
+ * It's created by the first {@link Node#get(int)} on a top node, together with the {@link TreeState} if the tree didn't have
+ * one, so even a tree which is only read allocates both once. Lookups far from the last one only pay a few field checks on
+ * top of the plain descent. Like the cached sizes, the path is written by reads, so a tree read from several threads has to
+ * be guarded like one which is changed.
+ */
+final class PositionCache {
+
+    //stepping to the previous position can descend a whole subtree, so far away positions are found from the top instead
+    private static final int MAX_STEPS = 32;
+
+    @NotNull
+    private final TreeState tree;
+    @NotNull
+    private final NodeCursor cursor;
+    private int position = -1; //the position of the last lookup, -1 when there wasn't one since the last change
+    private boolean seeked = false; //whether the cursor is at position
+    private int modCount;
+    private int visited; //the nodes visited by the last lookup
+
+    PositionCache(@NotNull Node<?> top, @NotNull TreeState tree) {
+        this.tree = tree;
+        this.cursor = new NodeCursor(top, NodeScope.VISIBLE);
+    }
+
+    /**
+     * A lookup far from the last one returns null so it descends from the top like any other node would, as seeking the cursor
+     * costs more than the plain descent. Only once lookups land near each other is the cursor seeked and then stepped.
+     *
+     * @param position has to be less than the size of the top
+     * @return the visible node at the position, or null if it's too far from the last lookup
+     */
+    @Nullable
+    Node<?> get(int position) {
+        if (modCount != tree.modCount) {
+            this.position = -1;
+            seeked = false;
+            modCount = tree.modCount;
+        }
+        int last = this.position;
+        this.position = -1; //in case stepping throws
+        if (last == -1 || Math.abs(position - last) > MAX_STEPS) {
+            seeked = false;
+            this.position = position;
+            return null;
+        }
+
+        if (seeked) {
+            for (int at = last; at < position; at++) cursor.next();
+            for (int at = last; at > position; at--) cursor.previous();
+            visited = Math.abs(position - last) + 1;
+        } else {
+            cursor.seek(position);
+            seeked = true;
+            visited = cursor.level() + 1;
+        }
+        this.position = position;
+        return cursor.node();
+    }
+
+    int visited() {
+        return visited;
+    }
+}
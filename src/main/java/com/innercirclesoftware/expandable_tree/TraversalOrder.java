@@ -0,0 +1,22 @@
+package com.innercirclesoftware.expandable_tree;
+
+/**
+ * The order a {@link TreeVisitor} receives the nodes in
+ */
+public enum TraversalOrder {
+
+    /**
+     * Depth first, entering a node before its children and leaving it after them
+     */
+    PRE_ORDER,
+
+    /**
+     * Depth first, where a node is entered and then left once all of its children were
+     */
+    POST_ORDER,
+
+    /**
+     * Level by level, where a node is entered and then left before the next node of the level
+     */
+    BREADTH_FIRST
+}
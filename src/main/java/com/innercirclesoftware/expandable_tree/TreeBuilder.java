@@ -0,0 +1,108 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Builds a tree in one pass from its nodes in pre-order with their depths, the format produced by flattening a tree.
+ * Depth 0 is a child of the root returned by {@link #build()}, and each entry can be at most one level deeper than the one before.
+ * <p>
+ * Nodes are appended below the current path without invalidating any sizes. The cached sizes are set bottom-up
+ * as each subtree is completed, so building n nodes is O(n) rather than walking up the parents on every add.
+ */
+public final class TreeBuilder<T> {
+
+    @NotNull
+    private final Node<T> root = new Node<>();
+    @NotNull
+    private Node<?>[] path = new Node<?>[16]; //the last node added at each level, the root at level 0
+    @NotNull
+    private int[] sizes = new int[16]; //the visible size of the children completed so far at each level
+    @NotNull
+    private int[] counts = new int[16]; //the number of nodes below each level completed so far
+    @NotNull
+    private boolean[] shown = new boolean[16]; //whether the node at each level isn't hidden by a collapsed parent
+    private int level = 0;
+    private boolean built = false;
+
+    public TreeBuilder() {
+        path[0] = root;
+        shown[0] = true;
+    }
+
+    /**
+     * Add an expanded node
+     */
+    @NotNull
+    public TreeBuilder<T> add(@NotNull T data, int depth) {
+        return add(data, depth, true);
+    }
+
+    /**
+     * Add the next node in pre-order
+     *
+     * @param depth the depth below the root, at most one more than the depth of the previous node
+     */
+    @NotNull
+    public TreeBuilder<T> add(@NotNull T data, int depth, boolean expanded) {
+        requireNonNull(data);
+        if (built) throw new IllegalStateException("The tree was already built");
+        if (depth < 0 || depth > level) {
+            String msg = String.format("Cannot add %s at depth %d, the previous node is at depth %d", data, depth, level - 1);
+            throw new IllegalArgumentException(msg);
+        }
+
+        while (level > depth) complete();
+
+        Node<T> node = new Node<>(data);
+        if (!expanded) node.setExpanded(false);
+        @SuppressWarnings("unchecked")
+        Node<T> parent = (Node<T>) path[level];
+        parent.appendBuilt(node);
+
+        if (++level == path.length) {
+            path = Arrays.copyOf(path, level * 2);
+            sizes = Arrays.copyOf(sizes, level * 2);
+            counts = Arrays.copyOf(counts, level * 2);
+            shown = Arrays.copyOf(shown, level * 2);
+        }
+        path[level] = node;
+        sizes[level] = 0;
+        counts[level] = 0;
+        shown[level] = shown[level - 1] && parent.isExpandedFlag();
+        return this;
+    }
+
+    /**
+     * @return the root holding the added nodes, after which the builder can't be used anymore
+     */
+    @NotNull
+    public Node<T> build() {
+        if (built) throw new IllegalStateException("The tree was already built");
+        while (level > 0) complete();
+        root.setBuiltSizes(sizes[0], counts[0]);
+        built = true;
+        return root;
+    }
+
+    /**
+     * Set the sizes of the node at the current level now that all its children were added, and add them to its parent
+     */
+    private void complete() {
+        Node<?> node = path[level];
+        int count = counts[level];
+        if (shown[level]) {
+            int size = node.isExpandedFlag() ? 1 + sizes[level] : 1;
+            node.setBuiltSizes(size, count);
+            sizes[level - 1] += size;
+        } else {
+            node.setBuiltSizes(Node.SIZE_INVALIDATED, count);
+        }
+        counts[level - 1] += 1 + count;
+        path[level] = null;
+        level--;
+    }
+}
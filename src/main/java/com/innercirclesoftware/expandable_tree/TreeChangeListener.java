@@ -0,0 +1,57 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Told about the changes to a tree it was registered on through its {@link TreeState}, like a {@link NodeJournal}.
+ * Nothing is called for trees without listeners, so the only cost to them is finding out there aren't any.
+ */
+interface TreeChangeListener {
+
+    /**
+     * @param child the node added to parent as the child at index, with its whole subtree
+     */
+    default void added(@NotNull Node<?> parent, int index, @NotNull Node<?> child) {
+    }
+
+    /**
+     * Called before the child at index is removed from parent
+     */
+    default void removed(@NotNull Node<?> parent, int index) {
+    }
+
+    /**
+     * @param path   the path of the node before it moved
+     * @param toPath the path of its new parent before it moved
+     * @param index  its index in the new parent
+     */
+    default void moved(@NotNull Node<?> node, @NotNull int[] path, @NotNull int[] toPath, int index) {
+    }
+
+    default void dataSet(@NotNull Node<?> node, @NotNull Object data) {
+    }
+
+    default void expandedSet(@NotNull Node<?> node, boolean expanded) {
+    }
+
+    /**
+     * @param before the children of parent before they were reordered
+     */
+    default void reordered(@NotNull Node<?> parent, @NotNull List<? extends Node<?>> before) {
+    }
+
+    /**
+     * Called before all the children of parent are removed
+     */
+    default void cleared(@NotNull Node<?> parent) {
+    }
+
+    /**
+     * Called once top, the top of the tree, was added below another node. The listener was dropped by then, as the tree it
+     * listened to is part of another tree now, so register it on the new top to keep listening.
+     */
+    default void topAttached(@NotNull Node<?> top) {
+    }
+}
@@ -0,0 +1,422 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The operations turning the visible rows of one tree into the visible rows of another, for updating a list showing the tree
+ * when a whole new tree replaces it. Rows are matched by a key taken from their data, which is the data itself by default.
+ * A matched row whose data isn't equal or whose depth differs is changed.
+ * <p>
+ * Unchanged runs at the start and end, and unchanged subtrees of matched rows, are found by comparing rolling 64 bit hashes
+ * of the rows, so only the rest is matched by key. Rows whose hashes match are still compared one by one, as different rows can
+ * collide. The operations are the removes from the back, the moves of the matched rows which aren't part of their longest
+ * increasing run, then the inserts and the changes from the front, which is O(n log n).
+ * <p>
+ * Copying the rows and matching the keys dominate. Trees of 100k rows with scattered changes take 40 to 80 ms on one core,
+ * so don't count on tens of milliseconds for trees that size.
+ * <p>
+ * The rows are captured on the calling thread, so with {@link #diffAsync(Node, Node, Function, Executor)} the trees can be
+ * modified again once it returns. The key function is then called on the executor.
+ */
+public final class TreeDiff {
+
+    private static final long BASE = 0x9E3779B97F4A7C15L; //odd, so the powers can be compared after multiplying
+
+    @NotNull
+    private final List<DiffOperation> operations;
+
+    private TreeDiff(@NotNull List<DiffOperation> operations) {
+        this.operations = Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * @return the operations to apply in order
+     */
+    @NotNull
+    public List<DiffOperation> getOperations() {
+        return operations;
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    @NotNull
+    public static <T> TreeDiff diff(@NotNull Node<T> oldTop, @NotNull Node<T> newTop) {
+        return diff(oldTop, newTop, Function.identity());
+    }
+
+    @NotNull
+    public static <T> TreeDiff diff(@NotNull Node<T> oldTop, @NotNull Node<T> newTop, @NotNull Function<? super T, ?> key) {
+        return compute(Rows.of(oldTop), Rows.of(newTop), requireNonNull(key));
+    }
+
+    @NotNull
+    public static <T> TreeDiff diff(@NotNull List<? extends FlattenedNode<? extends T>> oldRows,
+                                    @NotNull List<? extends FlattenedNode<? extends T>> newRows,
+                                    @NotNull Function<? super T, ?> key) {
+        return compute(Rows.of(oldRows), Rows.of(newRows), requireNonNull(key));
+    }
+
+    @NotNull
+    public static <T> CompletableFuture<TreeDiff> diffAsync(@NotNull Node<T> oldTop, @NotNull Node<T> newTop,
+                                                            @NotNull Function<? super T, ?> key, @NotNull Executor executor) {
+        requireNonNull(key);
+        Rows oldRows = Rows.of(oldTop);
+        Rows newRows = Rows.of(newTop);
+        return CompletableFuture.supplyAsync(() -> compute(oldRows, newRows, key), requireNonNull(executor));
+    }
+
+    @NotNull
+    public static <T> CompletableFuture<TreeDiff> diffAsync(@NotNull List<? extends FlattenedNode<? extends T>> oldRows,
+                                                            @NotNull List<? extends FlattenedNode<? extends T>> newRows,
+                                                            @NotNull Function<? super T, ?> key, @NotNull Executor executor) {
+        requireNonNull(key);
+        Rows oldCopy = Rows.of(oldRows);
+        Rows newCopy = Rows.of(newRows);
+        return CompletableFuture.supplyAsync(() -> compute(oldCopy, newCopy, key), requireNonNull(executor));
+    }
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private static TreeDiff compute(@NotNull Rows oldRows, @NotNull Rows newRows, @NotNull Function<?, ?> keyFunction) {
+        Function<Object, ?> key = (Function<Object, ?>) keyFunction;
+        int n = oldRows.size();
+        int m = newRows.size();
+        long[] powers = new long[Math.max(n, m) + 1];
+        powers[0] = 1;
+        for (int i = 1; i < powers.length; i++) powers[i] = powers[i - 1] * BASE;
+        Object[] oldKeys = oldRows.hash(key, powers);
+        Object[] newKeys = newRows.hash(key, powers);
+
+        //unchanged runs at the start and the end. Equal rows always hash equal, so a run the hashes accept can only be too long
+        int prefix = 0;
+        for (int lo = 0, hi = Math.min(n, m); lo < hi; ) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (sameHashes(oldRows, 0, newRows, 0, mid, powers)) lo = prefix = mid;
+            else hi = mid - 1;
+        }
+        if (!equalRows(oldRows, 0, newRows, 0, prefix)) {
+            //a hash collision, count the equal rows one by one instead
+            prefix = 0;
+            while (prefix < Math.min(n, m) && equalRows(oldRows, prefix, newRows, prefix, 1)) prefix++;
+        }
+        int suffix = 0;
+        for (int lo = 0, hi = Math.min(n, m) - prefix; lo < hi; ) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (sameHashes(oldRows, n - mid, newRows, m - mid, mid, powers)) lo = suffix = mid;
+            else hi = mid - 1;
+        }
+        if (!equalRows(oldRows, n - suffix, newRows, m - suffix, suffix)) {
+            suffix = 0;
+            while (suffix < Math.min(n, m) - prefix && equalRows(oldRows, n - suffix - 1, newRows, m - suffix - 1, 1)) suffix++;
+        }
+        if (prefix + suffix == n && n == m) return new TreeDiff(new ArrayList<>());
+
+        int[] oldMatch = new int[n];
+        int[] newMatch = new int[m];
+        Arrays.fill(oldMatch, -1);
+        Arrays.fill(newMatch, -1);
+        boolean[] changed = new boolean[m];
+        for (int i = 0; i < prefix; i++) pair(oldMatch, newMatch, i, i);
+        for (int i = 1; i <= suffix; i++) pair(oldMatch, newMatch, n - i, m - i);
+
+        //match the rest by key, the new rows with the same key are chained in order
+        int oldEnd = n - suffix;
+        int newEnd = m - suffix;
+        int[] nextSameKey = new int[m];
+        Map<Object, Integer> firstWithKey = new HashMap<>();
+        for (int j = newEnd - 1; j >= prefix; j--) {
+            Integer next = firstWithKey.put(newKeys[j], j);
+            nextSameKey[j] = next == null ? -1 : next;
+        }
+        int[] oldEnds = oldRows.subtreeEnds();
+        int[] newEnds = newRows.subtreeEnds();
+        for (int i = prefix; i < oldEnd; ) {
+            Integer first = firstWithKey.get(oldKeys[i]);
+            int j = first == null ? -1 : first;
+            while (j != -1 && newMatch[j] != -1) j = nextSameKey[j];
+            if (j == -1) {
+                if (first != null) firstWithKey.remove(oldKeys[i]);
+                i++;
+                continue;
+            }
+            //the rows with the key before j were all matched already
+            if (nextSameKey[j] == -1) firstWithKey.remove(oldKeys[i]);
+            else firstWithKey.put(oldKeys[i], nextSameKey[j]);
+            pair(oldMatch, newMatch, i, j);
+            changed[j] = oldRows.depths[i] != newRows.depths[j] || !Objects.equals(oldRows.data[i], newRows.data[j]);
+
+            //an unchanged subtree is matched row by row without looking up the keys
+            int length = oldEnds[i] - i + 1;
+            if (length > 1 && newEnds[j] - j + 1 == length && i + length <= oldEnd && j + length <= newEnd
+                    && unmatched(newMatch, j + 1, j + length) && sameRows(oldRows, i, newRows, j, length, powers)) {
+                for (int k = 1; k < length; k++) pair(oldMatch, newMatch, i + k, j + k);
+                i += length;
+            } else {
+                i++;
+            }
+        }
+
+        List<DiffOperation> operations = new ArrayList<>();
+        removes(oldMatch, operations);
+        moves(oldMatch, newMatch, operations);
+        runs(newMatch, changed, operations);
+        return new TreeDiff(operations);
+    }
+
+    private static void pair(@NotNull int[] oldMatch, @NotNull int[] newMatch, int i, int j) {
+        oldMatch[i] = j;
+        newMatch[j] = i;
+    }
+
+    private static boolean unmatched(@NotNull int[] matches, int from, int to) {
+        for (int i = from; i < to; i++) if (matches[i] != -1) return false;
+        return true;
+    }
+
+    /**
+     * @return true if the rows are equal, only comparing them one by one when their hashes are equal
+     */
+    private static boolean sameRows(@NotNull Rows a, int aFrom, @NotNull Rows b, int bFrom, int length, @NotNull long[] powers) {
+        return sameHashes(a, aFrom, b, bFrom, length, powers) && equalRows(a, aFrom, b, bFrom, length);
+    }
+
+    /**
+     * @return false if the rows differ, true if they're probably equal as different rows can collide
+     */
+    private static boolean sameHashes(@NotNull Rows a, int aFrom, @NotNull Rows b, int bFrom, int length, @NotNull long[] powers) {
+        //both ranges are scaled to the same power of the base before comparing
+        long aHash = (a.prefixHashes[aFrom + length] - a.prefixHashes[aFrom]) * powers[bFrom];
+        long bHash = (b.prefixHashes[bFrom + length] - b.prefixHashes[bFrom]) * powers[aFrom];
+        return aHash == bHash;
+    }
+
+    private static boolean equalRows(@NotNull Rows a, int aFrom, @NotNull Rows b, int bFrom, int length) {
+        for (int k = 0; k < length; k++) {
+            if (a.depths[aFrom + k] != b.depths[bFrom + k] || !Objects.equals(a.data[aFrom + k], b.data[bFrom + k])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The unmatched old rows from the back, so the positions of the rows before them don't change
+     */
+    private static void removes(@NotNull int[] oldMatch, @NotNull List<DiffOperation> operations) {
+        for (int i = oldMatch.length - 1; i >= 0; ) {
+            if (oldMatch[i] != -1) {
+                i--;
+                continue;
+            }
+            int end = i;
+            while (i >= 0 && oldMatch[i] == -1) i--;
+            operations.add(DiffOperation.remove(i + 1, end - i));
+        }
+    }
+
+    /**
+     * Move the matched rows which aren't part of the longest increasing run of new positions, in the order of their new positions.
+     * Each is moved right after the row before it in the new order, and its current position is counted with a Fenwick tree
+     * over slots for every row and every place a row is moved to.
+     */
+    private static void moves(@NotNull int[] oldMatch, @NotNull int[] newMatch, @NotNull List<DiffOperation> operations) {
+        int matched = 0;
+        for (int j : oldMatch) if (j != -1) matched++;
+        int[] sequence = new int[matched]; //the new positions of the matched rows in their old order
+        int[] indexOfNew = new int[newMatch.length];
+        for (int i = 0, q = 0; i < oldMatch.length; i++) {
+            if (oldMatch[i] == -1) continue;
+            indexOfNew[oldMatch[i]] = q;
+            sequence[q++] = oldMatch[i];
+        }
+
+        boolean[] stable = longestIncreasing(sequence);
+        int movedCount = 0;
+        for (boolean s : stable) if (!s) movedCount++;
+        if (movedCount == 0) return;
+
+        //the row each moved row goes after is the last stable row before it in the new order, which only grows
+        int[] moved = new int[movedCount];
+        int[] anchors = new int[movedCount];
+        int anchor = -1;
+        for (int j = 0, k = 0; j < newMatch.length; j++) {
+            if (newMatch[j] == -1) continue;
+            int q = indexOfNew[j];
+            if (stable[q]) {
+                anchor = q;
+            } else {
+                moved[k] = q;
+                anchors[k++] = anchor;
+            }
+        }
+
+        int[] fromSlots = new int[matched];
+        int[] toSlots = new int[movedCount];
+        int slot = 0;
+        int k = 0;
+        while (k < movedCount && anchors[k] == -1) toSlots[k++] = slot++;
+        for (int q = 0; q < matched; q++) {
+            fromSlots[q] = slot++;
+            while (k < movedCount && anchors[k] == q) toSlots[k++] = slot++;
+        }
+
+        int[] tree = new int[slot + 1];
+        for (int q = 0; q < matched; q++) add(tree, fromSlots[q], 1);
+        for (k = 0; k < movedCount; k++) {
+            int from = countBefore(tree, fromSlots[moved[k]]);
+            add(tree, fromSlots[moved[k]], -1);
+            int to = countBefore(tree, toSlots[k]);
+            add(tree, toSlots[k], 1);
+            if (from != to) operations.add(DiffOperation.move(from, to));
+        }
+    }
+
+    @NotNull
+    private static boolean[] longestIncreasing(@NotNull int[] sequence) {
+        int[] tails = new int[sequence.length];
+        int[] previous = new int[sequence.length];
+        int length = 0;
+        for (int q = 0; q < sequence.length; q++) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sequence[tails[mid]] < sequence[q]) lo = mid + 1;
+                else hi = mid;
+            }
+            previous[q] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = q;
+            if (lo == length) length++;
+        }
+
+        boolean[] stable = new boolean[sequence.length];
+        for (int q = length > 0 ? tails[length - 1] : -1; q != -1; q = previous[q]) stable[q] = true;
+        return stable;
+    }
+
+    private static void add(@NotNull int[] tree, int slot, int delta) {
+        for (int i = slot + 1; i < tree.length; i += i & -i) tree[i] += delta;
+    }
+
+    private static int countBefore(@NotNull int[] tree, int slot) {
+        int count = 0;
+        for (int i = slot; i > 0; i -= i & -i) count += tree[i];
+        return count;
+    }
+
+    /**
+     * The inserts of the unmatched new rows and the changes of the matched ones, from the front
+     */
+    private static void runs(@NotNull int[] newMatch, @NotNull boolean[] changed, @NotNull List<DiffOperation> operations) {
+        int m = newMatch.length;
+        for (int j = 0; j < m; ) {
+            if (newMatch[j] != -1) {
+                j++;
+                continue;
+            }
+            int start = j;
+            while (j < m && newMatch[j] == -1) j++;
+            operations.add(DiffOperation.insert(start, j - start));
+        }
+        for (int j = 0; j < m; ) {
+            if (!changed[j]) {
+                j++;
+                continue;
+            }
+            int start = j;
+            while (j < m && changed[j]) j++;
+            operations.add(DiffOperation.change(start, j - start));
+        }
+    }
+
+    /**
+     * The visible rows of a tree, copied so they can be diffed on another thread
+     */
+    private static final class Rows {
+
+        @NotNull
+        final Object[] data;
+        @NotNull
+        final int[] depths;
+        @NotNull
+        long[] prefixHashes = new long[1]; //the sum of the row hashes times the power of their position, before each position
+
+        private Rows(@NotNull Object[] data, @NotNull int[] depths) {
+            this.data = data;
+            this.depths = depths;
+        }
+
+        @NotNull
+        static Rows of(@NotNull Node<?> top) {
+            int size = requireNonNull(top).size();
+            Rows rows = new Rows(new Object[size], new int[size]);
+            int[] position = {0};
+            top.visit((node, depth) -> {
+                rows.data[position[0]] = node.getData();
+                rows.depths[position[0]++] = depth;
+                return VisitResult.CONTINUE;
+            }, TraversalOrder.PRE_ORDER, NodeScope.VISIBLE);
+            return rows;
+        }
+
+        @NotNull
+        static Rows of(@NotNull List<? extends FlattenedNode<?>> nodes) {
+            Rows rows = new Rows(new Object[nodes.size()], new int[nodes.size()]);
+            int position = 0;
+            for (FlattenedNode<?> node : nodes) {
+                rows.data[position] = requireNonNull(node.getItem());
+                rows.depths[position++] = node.getDepth();
+            }
+            return rows;
+        }
+
+        int size() {
+            return data.length;
+        }
+
+        /**
+         * @return the keys of the rows, after hashing the rows
+         */
+        @NotNull
+        Object[] hash(@NotNull Function<Object, ?> key, @NotNull long[] powers) {
+            Object[] keys = new Object[data.length];
+            prefixHashes = new long[data.length + 1];
+            for (int i = 0; i < data.length; i++) {
+                keys[i] = key.apply(data[i]);
+                long h = Objects.hashCode(keys[i]) * BASE + data[i].hashCode();
+                h = (h ^ (h >>> 29)) * 0xBF58476D1CE4E5B9L + depths[i];
+                prefixHashes[i + 1] = prefixHashes[i] + (h ^ (h >>> 32)) * powers[i];
+            }
+            return keys;
+        }
+
+        /**
+         * @return the last row of the subtree of each row
+         */
+        @NotNull
+        int[] subtreeEnds() {
+            int[] ends = new int[depths.length];
+            int[] stack = new int[depths.length];
+            int top = 0;
+            for (int i = 0; i < depths.length; i++) {
+                while (top > 0 && depths[stack[top - 1]] >= depths[i]) ends[stack[--top]] = i - 1;
+                stack[top++] = i;
+            }
+            while (top > 0) ends[stack[--top]] = depths.length - 1;
+            return ends;
+        }
+    }
+}
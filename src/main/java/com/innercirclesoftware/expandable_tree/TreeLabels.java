@@ -0,0 +1,208 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Pre-order interval labels of a whole tree, collapsed nodes included. Every node is labelled with its index in a pre-order
+ * walk from the top and the index of the last node of its subtree, so a node is an ancestor of another when the other's index
+ * falls inside its interval.
+ * <p>
+ * The labels are kept in an identity hash table next to the tree rather than in the nodes, so only trees that use them pay for
+ * them. They are rebuilt in O(n) by the first query after nodes were added, removed, moved or reordered, after which ancestor
+ * queries are O(1) and lowest common ancestor queries O(log n). Expanding and collapsing nodes doesn't change the labels.
+ */
+public final class TreeLabels {
+
+    private final Node<?> top;
+    private final TreeState tree;
+    private int version;
+    private boolean built = false;
+
+    private Node<?>[] keys = new Node<?>[0]; //identity hash table of node to pre-order index, with linear probing
+    private int[] values = new int[0];
+    private Node<?>[] order = new Node<?>[0]; //the nodes by pre-order index, the top is 0
+    private int[] ends = new int[0]; //the pre-order index of the last node in the subtree of each index
+    private int[] depths = new int[0];
+    @Nullable
+    private int[] minima = null; //segment tree of the index with the lowest depth in a range, built by the first lca query
+
+    TreeLabels(@NotNull Node<?> top, @NotNull TreeState tree) {
+        this.top = top;
+        this.tree = tree;
+    }
+
+    /**
+     * @return true if the ancestor is a strict ancestor of the node, false if either isn't part of the tree
+     */
+    public boolean isAncestorOf(@NotNull Node<?> ancestor, @NotNull Node<?> node) {
+        ensureBuilt();
+        int a = find(requireNonNull(ancestor));
+        int n = find(requireNonNull(node));
+        return a >= 0 && n >= 0 && a < n && n <= ends[a];
+    }
+
+    /**
+     * @return true if the node is a strict descendant of the ancestor, false if either isn't part of the tree
+     */
+    public boolean isDescendantOf(@NotNull Node<?> node, @NotNull Node<?> ancestor) {
+        return isAncestorOf(ancestor, node);
+    }
+
+    /**
+     * @return the deepest node having both nodes in its subtree, which is one of the nodes when it's an ancestor of the other
+     * @throws IllegalArgumentException if either node isn't part of the tree
+     */
+    @NotNull
+    public Node<?> lowestCommonAncestor(@NotNull Node<?> a, @NotNull Node<?> b) {
+        ensureBuilt();
+        int i = require(a);
+        int j = require(b);
+        if (i > j) {
+            int swap = i;
+            i = j;
+            j = swap;
+        }
+        if (j <= ends[i]) return order[i];
+
+        //the shallowest node between the two in pre-order is a child of the common ancestor
+        return requireNonNull(order[shallowest(i + 1, j)].getParent());
+    }
+
+    /**
+     * @return the index of the node in a pre-order walk of the whole tree starting with the top at 0, or -1 if the node isn't
+     * part of the tree. Ordering nodes by this index puts them in tree order.
+     */
+    public int preOrderIndex(@NotNull Node<?> node) {
+        ensureBuilt();
+        return find(requireNonNull(node));
+    }
+
+    /**
+     * @return the pre-order index of the last node in the subtree of the node, which is its own index for a leaf, or -1 if the node
+     * isn't part of the tree
+     */
+    public int subtreeEnd(@NotNull Node<?> node) {
+        ensureBuilt();
+        int index = find(requireNonNull(node));
+        return index < 0 ? -1 : ends[index];
+    }
+
+    /**
+     * @return the depth of the node below the top, or -1 if the node isn't part of the tree
+     */
+    public int depth(@NotNull Node<?> node) {
+        ensureBuilt();
+        int index = find(requireNonNull(node));
+        return index < 0 ? -1 : depths[index];
+    }
+
+    private void ensureBuilt() {
+        if (top.getParent() != null || top.tree() != tree) {
+            String msg = String.format("The labels of %s are no longer valid as it was attached to another node, use labels() again", top);
+            throw new IllegalStateException(msg);
+        }
+        if (!built || version != tree.structureVersion) build();
+    }
+
+    private void build() {
+        int count = top.childCount() + 1;
+        order = new Node<?>[count];
+        ends = new int[count];
+        depths = new int[count];
+        minima = null;
+        int capacity = Integer.highestOneBit(Math.max(count, 2) * 2 - 1) * 2; //at most half full
+        keys = new Node<?>[capacity];
+        values = new int[capacity];
+
+        Node<?>[] stack = new Node<?>[16];
+        int[] next = new int[16];
+        int depth = 0;
+        stack[0] = top;
+        label(top, 0, 0);
+        int index = 1;
+        while (depth >= 0) {
+            Node<?> node = stack[depth];
+            int child = next[depth];
+            if (child == node.directChildCount()) {
+                depth--;
+                continue;
+            }
+            next[depth]++;
+            Node<?> childNode = node.getDirectChild(child);
+            label(childNode, index++, depth + 1);
+            if (childNode.directChildCount() > 0) {
+                if (++depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                stack[depth] = childNode;
+                next[depth] = 0;
+            }
+        }
+        version = tree.structureVersion;
+        built = true;
+    }
+
+    private void label(@NotNull Node<?> node, int index, int depth) {
+        order[index] = node;
+        ends[index] = index + node.childCount();
+        depths[index] = depth;
+        int mask = keys.length - 1;
+        int slot = hash(node) & mask;
+        while (keys[slot] != null) slot = (slot + 1) & mask;
+        keys[slot] = node;
+        values[slot] = index;
+    }
+
+    private int find(@NotNull Node<?> node) {
+        int mask = keys.length - 1;
+        for (int slot = hash(node) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == node) return values[slot];
+        }
+        return -1;
+    }
+
+    private int require(@NotNull Node<?> node) {
+        int index = find(requireNonNull(node));
+        if (index < 0) {
+            String msg = String.format("Node %s is not part of the tree of %s", node, top);
+            throw new IllegalArgumentException(msg);
+        }
+        return index;
+    }
+
+    private static int hash(@NotNull Node<?> node) {
+        int h = System.identityHashCode(node) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the index with the lowest depth between from and to inclusive
+     */
+    private int shallowest(int from, int to) {
+        int n = order.length;
+        int[] minima = this.minima;
+        if (minima == null) {
+            minima = new int[2 * n];
+            for (int i = 0; i < n; i++) minima[n + i] = i;
+            for (int i = n - 1; i > 0; i--) minima[i] = shallower(minima[2 * i], minima[2 * i + 1]);
+            this.minima = minima;
+        }
+
+        int best = from;
+        for (int lo = from + n, hi = to + n + 1; lo < hi; lo >>= 1, hi >>= 1) {
+            if ((lo & 1) == 1) best = shallower(best, minima[lo++]);
+            if ((hi & 1) == 1) best = shallower(best, minima[--hi]);
+        }
+        return best;
+    }
+
+    private int shallower(int a, int b) {
+        return depths[b] < depths[a] ? b : a;
+    }
+}
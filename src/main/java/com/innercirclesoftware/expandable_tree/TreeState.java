@@ -0,0 +1,92 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State shared by a whole tree, held by its top node. Created on first use, so trees which don't need it don't pay for it.
+ * It passes the changes to the tree on to the registered listeners.
+ */
+final class TreeState implements TreeChangeListener {
+
+    //how many trees have listeners, so while none do changes don't walk up to their top to look for them
+    private static final AtomicInteger listening = new AtomicInteger();
+
+    int structureVersion = 0; //changes whenever nodes are added, removed, moved or reordered anywhere in the tree
+    int modCount = 0; //changes whenever the positions may have changed, the structure version or any size invalidated up to the top
+    @Nullable
+    PositionCache positions = null;
+    @Nullable
+    TreeLabels labels = null;
+    @Nullable
+    NodeJournal<?> journal = null;
+    @NotNull
+    final List<TreeChangeListener> listeners = new ArrayList<>(2); //changed through addListener and removeListener
+
+    /**
+     * @return whether any tree has listeners, if not then no change has to look for them
+     */
+    static boolean anyListening() {
+        return listening.get() > 0;
+    }
+
+    void addListener(@NotNull TreeChangeListener listener) {
+        if (listeners.isEmpty()) listening.incrementAndGet();
+        listeners.add(listener);
+    }
+
+    void removeListener(@NotNull TreeChangeListener listener) {
+        if (listeners.remove(listener) && listeners.isEmpty()) listening.decrementAndGet();
+    }
+
+    /**
+     * Drop the listeners once the top of the tree was added below another node, as they aren't told about changes anymore,
+     * and tell them so they can register on the new top
+     */
+    void detached(@NotNull Node<?> top) {
+        if (listeners.isEmpty()) return;
+        List<TreeChangeListener> dropped = new ArrayList<>(listeners);
+        listeners.clear();
+        listening.decrementAndGet();
+        for (TreeChangeListener listener : dropped) listener.topAttached(top);
+    }
+
+    @Override
+    public void added(@NotNull Node<?> parent, int index, @NotNull Node<?> child) {
+        for (TreeChangeListener listener : listeners) listener.added(parent, index, child);
+    }
+
+    @Override
+    public void removed(@NotNull Node<?> parent, int index) {
+        for (TreeChangeListener listener : listeners) listener.removed(parent, index);
+    }
+
+    @Override
+    public void moved(@NotNull Node<?> node, @NotNull int[] path, @NotNull int[] toPath, int index) {
+        for (TreeChangeListener listener : listeners) listener.moved(node, path, toPath, index);
+    }
+
+    @Override
+    public void dataSet(@NotNull Node<?> node, @NotNull Object data) {
+        for (TreeChangeListener listener : listeners) listener.dataSet(node, data);
+    }
+
+    @Override
+    public void expandedSet(@NotNull Node<?> node, boolean expanded) {
+        for (TreeChangeListener listener : listeners) listener.expandedSet(node, expanded);
+    }
+
+    @Override
+    public void reordered(@NotNull Node<?> parent, @NotNull List<? extends Node<?>> before) {
+        for (TreeChangeListener listener : listeners) listener.reordered(parent, before);
+    }
+
+    @Override
+    public void cleared(@NotNull Node<?> parent) {
+        for (TreeChangeListener listener : listeners) listener.cleared(parent);
+    }
+}
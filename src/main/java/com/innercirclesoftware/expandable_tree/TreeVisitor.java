@@ -0,0 +1,26 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives the nodes of {@link Node#visit(TreeVisitor, TraversalOrder, NodeScope)}. The depth of a node is relative to the node
+ * being visited, where its first level is 0.
+ */
+public interface TreeVisitor<T> {
+
+    /**
+     * @return {@link VisitResult#SKIP_SUBTREE} to not visit the children of this node, {@link VisitResult#STOP} to end the traversal
+     */
+    @NotNull
+    VisitResult enter(@NotNull Node<T> node, int depth);
+
+    /**
+     * Called for every node whose {@link #enter(Node, int)} returned {@link VisitResult#CONTINUE}, once its children were visited
+     *
+     * @return {@link VisitResult#STOP} to end the traversal, anything else to carry on
+     */
+    @NotNull
+    default VisitResult leave(@NotNull Node<T> node, int depth) {
+        return VisitResult.CONTINUE;
+    }
+}
@@ -0,0 +1,174 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Runs a {@link TreeVisitor} over a node without recursion. The stack, or the queue for {@link TraversalOrder#BREADTH_FIRST},
+ * is a pair of arrays which only grow, so visiting doesn't allocate per node.
+ * <p>
+ * Like positions, a top node without a parent isn't visited itself and its children are at depth 0.
+ */
+final class TreeWalker<T> {
+
+    @NotNull
+    private final TreeVisitor<T> visitor;
+    private final boolean all;
+    @NotNull
+    private Node<?>[] nodes = new Node<?>[16];
+    @NotNull
+    private int[] ints = new int[16]; //the next child index of each node on the stack, or the depth of each node in the queue
+    private int head = 0; //the start of the circular queue
+    private int queued = 0;
+
+    private TreeWalker(@NotNull TreeVisitor<T> visitor, @NotNull NodeScope scope) {
+        this.visitor = requireNonNull(visitor);
+        this.all = requireNonNull(scope) == NodeScope.ALL;
+    }
+
+    /**
+     * @return false if the visitor stopped the traversal
+     */
+    static <T> boolean walk(@NotNull Node<T> top, @NotNull TreeVisitor<T> visitor, @NotNull TraversalOrder order, @NotNull NodeScope scope) {
+        if (scope == NodeScope.VISIBLE && top.size() == 0) return true; //hidden by a collapsed parent
+
+        TreeWalker<T> walker = new TreeWalker<>(visitor, scope);
+        switch (requireNonNull(order)) {
+            case PRE_ORDER:
+                return walker.preOrder(top);
+            case POST_ORDER:
+                return walker.postOrder(top);
+            case BREADTH_FIRST:
+                return walker.breadthFirst(top);
+            default:
+                throw new IllegalArgumentException("Unknown order " + order);
+        }
+    }
+
+    private boolean preOrder(@NotNull Node<?> top) {
+        boolean topVisited = top.hasParent();
+        if (topVisited) {
+            VisitResult result = visitor.enter(cast(top), 0);
+            if (result == VisitResult.STOP) return false;
+            if (result == VisitResult.SKIP_SUBTREE) return true;
+        }
+
+        int topDepth = topVisited ? 0 : -1;
+        int size = push(top, 0);
+        while (size > 0) {
+            Node<?> node = nodes[size - 1];
+            int index = ints[size - 1];
+            if (index < node.directChildCount() && descends(node)) {
+                ints[size - 1] = index + 1;
+                Node<?> child = node.getDirectChild(index);
+                VisitResult result = visitor.enter(cast(child), topDepth + size);
+                if (result == VisitResult.STOP) return false;
+                if (result == VisitResult.CONTINUE) size = push(child, size);
+                continue;
+            }
+
+            nodes[--size] = null;
+            if (size > 0 || topVisited) {
+                if (visitor.leave(cast(node), topDepth + size) == VisitResult.STOP) return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean postOrder(@NotNull Node<?> top) {
+        boolean topVisited = top.hasParent();
+        int topDepth = topVisited ? 0 : -1;
+        int size = push(top, 0);
+        while (size > 0) {
+            Node<?> node = nodes[size - 1];
+            int index = ints[size - 1];
+            if (index < node.directChildCount() && descends(node)) {
+                ints[size - 1] = index + 1;
+                size = push(node.getDirectChild(index), size);
+                continue;
+            }
+
+            nodes[--size] = null;
+            if (size > 0 || topVisited) {
+                if (!enterAndLeave(node, topDepth + size)) return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean breadthFirst(@NotNull Node<?> top) {
+        if (top.hasParent()) enqueue(top, 0);
+        else if (descends(top)) enqueueChildren(top, 0);
+
+        while (queued > 0) {
+            Node<?> node = nodes[head];
+            int depth = ints[head];
+            nodes[head] = null;
+            head = (head + 1) % nodes.length;
+            queued--;
+
+            VisitResult result = visitor.enter(cast(node), depth);
+            if (result == VisitResult.STOP) return false;
+            if (result == VisitResult.SKIP_SUBTREE) continue;
+            if (visitor.leave(cast(node), depth) == VisitResult.STOP) return false;
+            if (descends(node)) enqueueChildren(node, depth + 1);
+        }
+        return true;
+    }
+
+    private void enqueueChildren(@NotNull Node<?> node, int depth) {
+        for (int i = 0; i < node.directChildCount(); i++) enqueue(node.getDirectChild(i), depth);
+    }
+
+    private void enqueue(@NotNull Node<?> node, int depth) {
+        if (queued == nodes.length) {
+            //unwrap the circular queue into the start of bigger arrays
+            Node<?>[] grownNodes = new Node<?>[queued * 2];
+            int[] grownInts = new int[queued * 2];
+            for (int i = 0; i < queued; i++) {
+                grownNodes[i] = nodes[(head + i) % queued];
+                grownInts[i] = ints[(head + i) % queued];
+            }
+            nodes = grownNodes;
+            ints = grownInts;
+            head = 0;
+        }
+
+        int tail = (head + queued) % nodes.length;
+        nodes[tail] = node;
+        ints[tail] = depth;
+        queued++;
+    }
+
+    private boolean enterAndLeave(@NotNull Node<?> node, int depth) {
+        //the subtree has already been visited, so there's nothing to skip
+        if (visitor.enter(cast(node), depth) == VisitResult.STOP) return false;
+        return visitor.leave(cast(node), depth) != VisitResult.STOP;
+    }
+
+    private boolean descends(@NotNull Node<?> node) {
+        return all || node.isExpandedFlag();
+    }
+
+    /**
+     * @return the new size of the stack
+     */
+    private int push(@NotNull Node<?> node, int size) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            ints = Arrays.copyOf(ints, size * 2);
+        }
+        nodes[size] = node;
+        ints[size] = 0;
+        return size + 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private Node<T> cast(@NotNull Node<?> node) {
+        return (Node<T>) node;
+    }
+}
@@ -0,0 +1,16 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives the visible rows of {@link Node#forEachVisible(int, int, VisibleNodeConsumer)}
+ */
+@FunctionalInterface
+public interface VisibleNodeConsumer<T> {
+
+    /**
+     * @param node  the node at the current position
+     * @param depth the depth of the node below the node being walked, where its first visible level is 0
+     */
+    void accept(@NotNull Node<T> node, int depth);
+}
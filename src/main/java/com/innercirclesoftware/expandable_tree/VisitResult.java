@@ -0,0 +1,19 @@
+package com.innercirclesoftware.expandable_tree;
+
+/**
+ * What a {@link TreeVisitor} wants the traversal to do next
+ */
+public enum VisitResult {
+
+    CONTINUE,
+
+    /**
+     * Don't visit the children of the node. Has no effect in {@link TraversalOrder#POST_ORDER}, where the children come first.
+     */
+    SKIP_SUBTREE,
+
+    /**
+     * End the traversal straight away
+     */
+    STOP
+}
@@ -0,0 +1,89 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ChunkedChildListTest {
+
+    @Test
+    public void randomInsertsAndRemovesMatchArrayList() {
+        Random random = new Random(42);
+        List<Node<? extends Integer>> expected = new ArrayList<>();
+        ChunkedChildList<Integer> actual = new ChunkedChildList<>(Collections.emptyList());
+
+        for (int i = 0; i < 20_000; i++) {
+            if (expected.isEmpty() || random.nextInt(3) != 0) {
+                int index = random.nextInt(expected.size() + 1);
+                Node<Integer> node = new Node<>(i);
+                expected.add(index, node);
+                actual.add(index, node);
+            } else {
+                int index = random.nextInt(expected.size());
+                Node<? extends Integer> removed = actual.remove(index);
+                assertSame(expected.remove(index), removed);
+                assertNull(removed.leaf());
+            }
+        }
+
+        assertEquals(expected, actual);
+        assertEquals(expected, new ArrayList<>(actual)); //iterator
+        for (int i = 0; i < expected.size(); i += 97) {
+            assertEquals(i, actual.indexOf(expected.get(i)));
+        }
+        assertEquals(-1, actual.indexOf(new Node<>(0)));
+    }
+
+    @Test
+    public void removingEverythingLeavesAnEmptyList() {
+        List<Node<? extends Integer>> children = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) children.add(new Node<>(i));
+        ChunkedChildList<Integer> list = new ChunkedChildList<>(children);
+
+        while (!list.isEmpty()) list.remove(list.size() / 2);
+        assertEquals(0, list.sizeSum());
+
+        Node<Integer> node = new Node<>(1);
+        list.add(0, node);
+        assertEquals(1, list.size());
+        assertEquals(node, list.get(0));
+    }
+
+    @Test
+    public void locateFindsTheChildHoldingAPosition() {
+        Node<Integer> parent = new Node<>(-1);
+        List<Node<? extends Integer>> children = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Node<Integer> child = parent.add(i);
+            child.add(i * 10); //every child holds 2 positions
+            children.add(child);
+        }
+        ChunkedChildList<Integer> list = new ChunkedChildList<>(children);
+
+        assertEquals(1000, list.sizeSum());
+        assertEquals(0L, list.locate(0));
+        assertEquals((1L << 32) | 1, list.locate(3));
+        assertEquals((499L << 32) | 1, list.locate(999));
+    }
+
+    @Test
+    public void sortKeepsEveryChildAndItsLeaf() {
+        List<Node<? extends Integer>> children = new ArrayList<>();
+        for (int i = 0; i < 300; i++) children.add(new Node<>(299 - i));
+        ChunkedChildList<Integer> list = new ChunkedChildList<>(children);
+
+        list.sort(Comparator.comparing(Node::getData));
+        for (int i = 0; i < 300; i++) {
+            assertEquals(Integer.valueOf(i), list.get(i).getData());
+            assertEquals(i, list.indexOf(list.get(i)));
+        }
+    }
+}
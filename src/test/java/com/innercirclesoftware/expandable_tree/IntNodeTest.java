@@ -0,0 +1,144 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IntNodeTest {
+
+    @Test
+    public void behavesLikeABoxedTree() {
+        IntNode root = new IntNode();
+        Node<Integer> boxedRoot = new Node<>();
+        IntNode child0 = root.add(0);
+        Node<Integer> boxedChild0 = boxedRoot.add(0);
+        child0.add(1);
+        boxedChild0.add(1);
+        root.add(Integer.valueOf(2));
+        boxedRoot.add(2);
+
+        assertTrue(root.isRoot());
+        assertFalse(child0.isRoot());
+        assertTrue(root.getDirectChild(1) instanceof IntNode);
+        assertEquals(boxedRoot, root);
+        assertEquals(boxedRoot.hashCode(), root.hashCode());
+        assertEquals(3, root.size());
+        assertArrayEquals(new int[]{0, 1, 2}, root.toIntArray());
+
+        child0.setExpanded(false);
+        boxedChild0.setExpanded(false);
+        assertEquals(boxedRoot, root);
+        assertEquals(2, root.size());
+        assertEquals(2, root.getInt(1));
+        assertEquals(Integer.valueOf(2), root.get(1).getData());
+        assertArrayEquals(new int[]{0, 2}, root.toIntArray());
+    }
+
+    @Test
+    public void copiesAreIntNodes() {
+        IntNode root = new IntNode();
+        root.add(0).add(1);
+        root.add(2).setExpanded(false);
+
+        Node<Integer> copy = root.copy();
+        Node<Integer> lazy = root.copyLazily();
+        ((IntNode) root.getDirectChild(0)).setInt(7);
+        assertTrue(copy instanceof IntNode);
+        assertTrue(lazy.getDirectChild(0).getDirectChild(0) instanceof IntNode);
+        assertArrayEquals(new int[]{0, 1, 2}, ((IntNode) copy).toIntArray());
+        assertArrayEquals(new int[]{0, 1, 2}, ((IntNode) lazy).toIntArray());
+    }
+
+    @Test
+    public void rootHasNoValue() {
+        try {
+            new IntNode().getInt();
+            fail();
+        } catch (NullPointerException expected) {
+        }
+    }
+
+    @Test
+    public void setIntKeepsChildrenOrdered() {
+        IntNode root = new IntNode();
+        root.setComparator(Comparator.naturalOrder());
+        IntNode five = root.add(5);
+        root.add(3);
+        root.add(7);
+        assertArrayEquals(new int[]{3, 5, 7}, root.toIntArray());
+
+        five.setInt(9);
+        assertArrayEquals(new int[]{3, 7, 9}, root.toIntArray());
+        five.setData(1);
+        assertArrayEquals(new int[]{1, 3, 7}, root.toIntArray());
+    }
+
+    @Test
+    public void visitIntsInEveryOrder() {
+        IntNode root = new IntNode();
+        IntNode a = root.add(1);
+        a.add(2);
+        a.add(3);
+        root.add(4);
+        a.setExpanded(false);
+
+        List<Integer> visited = new ArrayList<>();
+        root.visitInts((value, depth) -> {
+            visited.add(value * 10 + depth);
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.POST_ORDER, NodeScope.ALL);
+        assertEquals(Arrays.asList(21, 31, 10, 40), visited);
+
+        visited.clear();
+        root.visitInts((value, depth) -> {
+            visited.add(value);
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.VISIBLE);
+        assertEquals(Arrays.asList(1, 4), visited);
+    }
+
+    @Test
+    public void randomTreesMatchBoxedTrees() {
+        Random random = new Random(4);
+        IntNode root = new IntNode();
+        Node<Integer> boxedRoot = new Node<>();
+        List<Node<Integer>> nodes = new ArrayList<>();
+        List<Node<Integer>> boxedNodes = new ArrayList<>();
+        nodes.add(root);
+        boxedNodes.add(boxedRoot);
+        for (int i = 0; i < 2_000; i++) {
+            int target = random.nextInt(nodes.size());
+            int action = random.nextInt(4);
+            if (action < 2) {
+                int value = random.nextInt(100);
+                nodes.add(nodes.get(target).add(value));
+                boxedNodes.add(boxedNodes.get(target).add(value));
+            } else if (action == 2) {
+                nodes.get(target).toggleExpanded();
+                boxedNodes.get(target).toggleExpanded();
+            } else if (target > 0) {
+                int value = random.nextInt(100);
+                nodes.get(target).setData(value);
+                boxedNodes.get(target).setData(value);
+            }
+
+            assertEquals(boxedRoot.size(), root.size());
+            if (root.size() > 0) {
+                int position = random.nextInt(root.size());
+                assertEquals((int) boxedRoot.get(position).getData(), root.getInt(position));
+            }
+        }
+        assertEquals(boxedRoot, root);
+        assertEquals(boxedRoot.hashCode(), root.hashCode());
+    }
+}
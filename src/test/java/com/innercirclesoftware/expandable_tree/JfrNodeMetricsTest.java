@@ -0,0 +1,55 @@
+package com.innercirclesoftware.expandable_tree;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class JfrNodeMetricsTest {
+
+    @Test
+    public void recordsEvents() throws Exception {
+        Node<String> root = new Node<>();
+        root.add("a").add("a0");
+        root.add("b");
+
+        Path file = Files.createTempFile("metrics", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(JfrNodeMetrics.Located.class);
+            recording.enable(JfrNodeMetrics.Flattened.class);
+            recording.start();
+            Node.setMetrics(new JfrNodeMetrics());
+            try {
+                root.get(1);
+                NodesKt.flatten(root);
+            } finally {
+                Node.setMetrics(null);
+            }
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<RecordedEvent> located = ofType(events, "Located");
+            assertEquals(1, located.size());
+            assertEquals(3, located.get(0).getInt("visited"));
+            List<RecordedEvent> flattened = ofType(events, "Flattened");
+            assertEquals(1, flattened.size());
+            assertEquals(3, flattened.get(0).getInt("rows"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals("com.innercirclesoftware.expandable_tree." + name))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,44 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.junit.Test;
+
+import java.util.Comparator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LongNodeTest {
+
+    @Test
+    public void behavesLikeABoxedTree() {
+        LongNode root = new LongNode();
+        Node<Long> boxedRoot = new Node<>();
+        LongNode big = root.add(5_000_000_000L);
+        Node<Long> boxedBig = boxedRoot.add(5_000_000_000L);
+        big.add(1L);
+        boxedBig.add(1L);
+        root.add(Long.valueOf(-2));
+        boxedRoot.add(-2L);
+
+        assertTrue(root.getDirectChild(1) instanceof LongNode);
+        assertEquals(boxedRoot, root);
+        assertEquals(boxedRoot.hashCode(), root.hashCode());
+        assertArrayEquals(new long[]{5_000_000_000L, 1, -2}, root.toLongArray());
+
+        big.setExpanded(false);
+        assertEquals(2, root.size());
+        assertEquals(-2, root.getLong(1));
+    }
+
+    @Test
+    public void setLongKeepsChildrenOrdered() {
+        LongNode root = new LongNode();
+        root.setComparator(Comparator.naturalOrder());
+        LongNode five = root.add(5);
+        root.add(3);
+        root.add(7);
+        five.setLong(9);
+        assertArrayEquals(new long[]{3, 7, 9}, root.toLongArray());
+    }
+}
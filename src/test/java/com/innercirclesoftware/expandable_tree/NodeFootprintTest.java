@@ -0,0 +1,43 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the memory used by nodes. Before children were allocated lazily every node held an ArrayList, which made a leaf
+ * about 60 bytes including its slot in the parent's children, and about 77 bytes once nodes also held a comparator and a leaf reference.
+ */
+public class NodeFootprintTest {
+
+    private static final Integer DATA = 1; //shared by every node, so only the nodes are measured
+
+    @Test
+    public void leafHoldsNoChildrenStorage() {
+        Node<Integer> leaf = new Node<>(DATA);
+
+        //the node, its data and the shared empty list
+        assertEquals(3, GraphLayout.parseInstance(leaf).totalCount());
+    }
+
+    @Test
+    public void leavesAreSmallerThanWithEagerChildren() {
+        int leaves = 1000;
+        Node<Integer> parent = new Node<>(DATA);
+        for (int i = 0; i < leaves; i++) parent.add(DATA);
+
+        long perLeaf = GraphLayout.parseInstance(parent).totalSize() / leaves;
+        assertTrue("A leaf takes " + perLeaf + " bytes", perLeaf < 56);
+    }
+
+    @Test
+    public void removingTheLastChildReleasesTheChildren() {
+        Node<Integer> parent = new Node<>(DATA);
+        Node<Integer> child = parent.add(DATA);
+        parent.remove(child);
+
+        assertEquals(3, GraphLayout.parseInstance(parent).totalCount());
+    }
+}
@@ -0,0 +1,175 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NodeJournalTest {
+
+    @Test
+    public void recordsChangesByPath() {
+        Node<String> top = new Node<>();
+        NodeJournal<String> journal = top.startJournal();
+        assertSame(journal, top.startJournal());
+
+        Node<String> a = top.add("a");
+        a.add("a0");
+        a.setExpanded(false);
+        a.setData("A");
+
+        List<JournalEntry<String>> entries = journal.drain();
+        assertEquals(0, journal.size());
+        assertEquals(4, entries.size());
+        assertEquals(JournalEntry.Type.ADD, entries.get(0).getType());
+        assertEquals(0, entries.get(0).getPath().length);
+        assertEquals(JournalEntry.Type.ADD, entries.get(1).getType());
+        assertEquals(0, entries.get(1).getPath()[0]);
+        assertEquals(JournalEntry.Type.SET_EXPANDED, entries.get(2).getType());
+        assertEquals("A", entries.get(3).getData());
+
+        top.stopJournal();
+        assertNull(top.getJournal());
+        top.add("b");
+        assertEquals(0, journal.size());
+    }
+
+    @Test
+    public void stopsRecordingOnceTheTopIsAddedBelowAnotherNode() {
+        Node<String> top = new Node<>("top");
+        NodeJournal<String> journal = top.startJournal();
+        Node<String> a = top.add("a");
+        assertEquals(1, journal.drain().size());
+
+        Node<String> other = new Node<>();
+        other.add(top);
+        a.setData("A");
+        top.add("b");
+        assertEquals(0, journal.size());
+        assertNull(top.getJournal());
+
+        other.remove(top);
+        NodeJournal<String> restarted = top.startJournal();
+        a.setData("a");
+        assertEquals(1, restarted.size());
+        top.stopJournal();
+    }
+
+    @Test
+    public void addedSubtreesAreCopied() {
+        Node<String> top = new Node<>();
+        NodeJournal<String> journal = top.startJournal();
+        Node<String> a = new Node<>("a");
+        a.add("a0").add("a0x");
+        a.add("a1");
+        a.getDirectChild(0).setExpanded(false);
+        top.add(a);
+
+        Node<String> replica = new Node<>();
+        NodeJournal.replay(journal.drain(), replica);
+        assertEquals(asRows(top), asRows(replica));
+        assertEquals(top.size(), replica.size());
+    }
+
+    @Test
+    public void compactDropsOverwrittenAndRemovedChanges() {
+        Node<String> top = new Node<>();
+        Node<String> a = top.add("a");
+        NodeJournal<String> journal = top.startJournal();
+        a.setData("b");
+        a.setData("c");
+        a.toggleExpanded();
+        a.toggleExpanded();
+        Node<String> temporary = top.add("temporary");
+        temporary.setData("still temporary");
+        top.remove(temporary);
+        journal.compact();
+
+        assertEquals(2, journal.size());
+        assertEquals("c", journal.getEntries().get(0).getData());
+        assertTrue(journal.getEntries().get(1).isExpanded());
+    }
+
+    @Test
+    public void randomChangesReplayOntoReplica() {
+        Random random = new Random(9);
+        Node<Integer> top = new Node<>();
+        Node<Integer> replica = new Node<>();
+        NodeJournal<Integer> journal = top.startJournal();
+        List<Node<Integer>> nodes = new ArrayList<>();
+        for (int i = 0; i < 4_000; i++) {
+            int action = random.nextInt(20);
+            if (nodes.isEmpty() || action < 8) {
+                Node<Integer> node = new Node<>(i);
+                if (random.nextInt(4) == 0) node.add(i + 100_000);
+                Node<Integer> parent = nodes.isEmpty() || random.nextInt(5) == 0 ? top : nodes.get(random.nextInt(nodes.size()));
+                if (parent.getComparator() == null) parent.add(node, random.nextInt(parent.directChildCount() + 1));
+                else parent.add(node);
+                node.visit((n, depth) -> {
+                    nodes.add(n);
+                    return VisitResult.CONTINUE;
+                }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+            } else if (action < 11) {
+                nodes.get(random.nextInt(nodes.size())).toggleExpanded();
+            } else if (action < 13) {
+                nodes.get(random.nextInt(nodes.size())).setData(random.nextInt(1000));
+            } else if (action < 15) {
+                Node<Integer> node = nodes.get(random.nextInt(nodes.size()));
+                Node<Integer> parent = random.nextInt(4) == 0 ? top : nodes.get(random.nextInt(nodes.size()));
+                if (parent != node && !node.labels().isAncestorOf(node, parent)) {
+                    if (parent.getComparator() == null) node.moveTo(parent, random.nextInt(parent.directChildCount() + (node.getParent() == parent ? 0 : 1)));
+                    else node.moveTo(parent);
+                }
+            } else if (action < 16) {
+                nodes.get(random.nextInt(nodes.size())).setComparator(Comparator.naturalOrder());
+            } else if (action < 17) {
+                Node<Integer> node = nodes.get(random.nextInt(nodes.size()));
+                if (node.replaceWith(new Node<>(-i))) forget(nodes, node);
+            } else if (action < 18 && random.nextInt(10) == 0) {
+                Node<Integer> node = nodes.get(random.nextInt(nodes.size()));
+                for (Node<?> child : node.getChildren()) forget(nodes, child);
+                node.clear();
+            } else {
+                Node<Integer> node = nodes.get(random.nextInt(nodes.size()));
+                @SuppressWarnings("unchecked")
+                Node<Integer> parent = (Node<Integer>) node.getParent();
+                if (parent != null) {
+                    parent.remove(node);
+                    forget(nodes, node);
+                }
+            }
+            nodes.removeIf(node -> !node.hasParent());
+
+            if (i % 97 == 0) {
+                if (random.nextBoolean()) journal.compact();
+                NodeJournal.replay(journal.drain(), replica);
+                assertEquals(asRows(top), asRows(replica));
+                assertEquals(top.size(), replica.size());
+            }
+        }
+    }
+
+    private static void forget(List<Node<Integer>> nodes, Node<?> removed) {
+        removed.visit((n, depth) -> {
+            nodes.remove(n);
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+        nodes.remove(removed);
+    }
+
+    private static List<String> asRows(Node<?> top) {
+        List<String> rows = new ArrayList<>();
+        top.visit((node, depth) -> {
+            rows.add(node.getData() + "@" + depth + (node.isExpandedFlag() ? "" : "-"));
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+        return rows;
+    }
+}
@@ -0,0 +1,148 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NodeSearchIndexTest {
+
+    @Test
+    public void findsSubstringsInTreeOrder() {
+        Node<String> top = new Node<>();
+        Node<String> fruit = top.add("Fruit");
+        fruit.add("Apple");
+        fruit.add("Pineapple");
+        fruit.setExpanded(false);
+        top.add("Grape");
+        top.add("apple pie");
+        NodeSearchIndex<String> index = top.searchIndex(data -> data);
+
+        assertEquals(Arrays.asList("Apple", "Pineapple", "apple pie"), data(index.search("APPLE")));
+        assertEquals(Arrays.asList("Apple", "apple pie"), data(index.search("ap")));
+        assertEquals(Collections.singletonList("Apple"), data(index.search("pple", 1)));
+        assertTrue(index.search("pear").isEmpty());
+        assertEquals(5, index.search("").size());
+    }
+
+    @Test
+    public void followsChangesToTheTree() {
+        Node<String> top = new Node<>();
+        Node<String> a = top.add("alpha");
+        Node<String> b = top.add("beta");
+        NodeSearchIndex<String> index = top.searchIndex(data -> data);
+
+        Node<String> gamma = b.add("gamma alpha");
+        assertEquals(Arrays.asList(a, gamma), index.search("alpha"));
+        a.setData("delta");
+        assertEquals(Collections.singletonList(gamma), index.search("alpha"));
+        gamma.moveTo(top, 0);
+        assertEquals(Arrays.asList(gamma, a, b), index.search(""));
+        top.remove(gamma);
+        assertTrue(index.search("gamma").isEmpty());
+        b.add("gamma");
+        top.clear();
+        assertEquals(0, index.size());
+        assertTrue(index.search("").isEmpty());
+
+        Node<String> other = new Node<>();
+        other.add("epsilon").moveTo(top);
+        assertEquals(1, index.search("psi").size());
+
+        index.close();
+        try {
+            index.search("psi");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void revealShowsTheHit() {
+        Node<String> top = new Node<>();
+        Node<String> a = top.add("a");
+        a.add("a0").add("needle");
+        a.getDirectChild(0).setExpanded(false);
+        a.setExpanded(false);
+        top.add("b");
+        NodeSearchIndex<String> index = top.searchIndex(data -> data);
+
+        Node<String> hit = index.search("needle").get(0);
+        assertEquals(-1, hit.position());
+        assertEquals(2, hit.reveal());
+        assertEquals(hit, top.get(2));
+    }
+
+    @Test
+    public void onlyTheTopCanBeIndexed() {
+        Node<String> top = new Node<>();
+        try {
+            top.add("a").searchIndex(data -> data);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void randomChangesMatchScanning() {
+        Random random = new Random(11);
+        Node<String> top = new Node<>();
+        List<Node<String>> nodes = new ArrayList<>();
+        NodeSearchIndex<String> index = top.searchIndex(data -> data);
+        for (int i = 0; i < 5_000; i++) {
+            int action = random.nextInt(10);
+            if (nodes.isEmpty() || action < 5) {
+                Node<String> parent = nodes.isEmpty() || random.nextInt(4) == 0 ? top : nodes.get(random.nextInt(nodes.size()));
+                nodes.add(parent.add(word(random)));
+            } else if (action < 7) {
+                nodes.get(random.nextInt(nodes.size())).setData(word(random));
+            } else if (action < 8) {
+                Node<String> node = nodes.get(random.nextInt(nodes.size()));
+                Node<String> parent = random.nextBoolean() ? top : nodes.get(random.nextInt(nodes.size()));
+                if (parent != node && !node.labels().isAncestorOf(node, parent)) node.moveTo(parent);
+            } else {
+                Node<String> node = nodes.get(random.nextInt(nodes.size()));
+                node.getParent().remove(node);
+            }
+            nodes.removeIf(node -> node.top() != top);
+
+            if (i % 250 == 0) {
+                for (String query : Arrays.asList("a", "bc", "abc", "cab", "aaaa", "")) {
+                    assertEquals(query, scan(top, query), index.search(query));
+                    List<Node<String>> matches = scan(top, query);
+                    assertEquals(query, matches.subList(0, Math.min(3, matches.size())), index.search(query, 3));
+                }
+            }
+        }
+    }
+
+    private static String word(Random random) {
+        StringBuilder word = new StringBuilder();
+        for (int i = random.nextInt(8); i >= 0; i--) word.append((char) ('a' + random.nextInt(3)));
+        return random.nextBoolean() ? word.toString() : word.toString().toUpperCase(Locale.ROOT);
+    }
+
+    private static List<Node<String>> scan(Node<String> top, String query) {
+        List<Node<String>> matches = new ArrayList<>();
+        top.visit((node, depth) -> {
+            if (node == top) return VisitResult.CONTINUE;
+            String text = node.getData().toLowerCase(Locale.ROOT);
+            if (query.length() < 3 ? text.startsWith(query) : text.contains(query)) matches.add(node);
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+        return matches;
+    }
+
+    private static List<String> data(List<Node<String>> nodes) {
+        return nodes.stream().map(Node::getData).collect(Collectors.toList());
+    }
+}
@@ -4,14 +4,21 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -527,6 +534,759 @@ public class NodeTest {
         assertEquals(complex, complexCopy);
     }
 
+    @Test
+    public void setComparator_sortsChildrenAndAddsInOrder() {
+        Node<String> sorted = new Node<>();
+        sorted.add("c");
+        sorted.add("a");
+        sorted.setComparator(Comparator.naturalOrder());
+        assertEquals("a", sorted.getDirectChild(0).getData());
+        assertEquals("c", sorted.getDirectChild(1).getData());
+
+        sorted.add("b");
+        sorted.add("d");
+        sorted.add(new Node<>("0"));
+        assertEquals("0", sorted.get(0).getData());
+        assertEquals("a", sorted.get(1).getData());
+        assertEquals("b", sorted.get(2).getData());
+        assertEquals("c", sorted.get(3).getData());
+        assertEquals("d", sorted.get(4).getData());
+        assertEquals(5, sorted.size());
+
+        try {
+            sorted.add(new Node<>("e"), 0);
+            fail();
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    @Test
+    public void sort_sortsWholeSubtreeKeepingSize() {
+        assertEquals(11, root.size());
+        root.sort(Comparator.reverseOrder());
+
+        assertEquals(11, root.size());
+        assertEquals(child2, root.get(0));
+        assertEquals(child1, root.get(1));
+        assertEquals(child0, root.get(2));
+        assertEquals(child0_5, root.get(3));
+        assertEquals(child0_4, root.get(4));
+        assertEquals(child0_4_1, root.get(5));
+        assertEquals(child0_4_0, root.get(6));
+        assertEquals(Comparator.reverseOrder(), child0_4.getComparator());
+    }
+
+    @Test
+    public void setData_repositionsInSortedParent() {
+        child0.setComparator(Comparator.naturalOrder());
+        child0_1.setData("child0_9");
+        assertEquals(child0_1, child0.getDirectChild(5));
+        assertEquals(child0_2, child0.getDirectChild(1));
+        assertEquals(11, root.size());
+
+        child0_1.setData("child0_0");
+        assertEquals(child0_0, child0.getDirectChild(0));
+        assertEquals(child0_1, child0.getDirectChild(1));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getChildren_isReadOnly() {
+        root.getChildren().clear();
+    }
+
+    @Test
+    public void wideNode_switchesStorageAndKeepsPositions() {
+        Node<String> wide = new Node<>("wide");
+        root.add(wide, 1);
+        for (int i = 0; i <= Node.WIDE_CHILDREN; i++) wide.add("wide_" + i);
+        assertTrue(wide.getChildren().size() > Node.WIDE_CHILDREN);
+        assertEquals(11 + 1 + Node.WIDE_CHILDREN + 1, root.size());
+
+        Node<String> middle = new Node<>("middle");
+        middle.add("middle_0");
+        wide.add(middle, 500);
+        assertEquals(middle, root.get(9 + 1 + 500));
+        assertEquals("middle_0", root.get(9 + 1 + 501).getData());
+        assertEquals("wide_500", root.get(9 + 1 + 502).getData());
+        assertEquals(child1, root.get(root.size() - 2));
+
+        middle.setExpanded(false);
+        assertEquals("wide_500", root.get(9 + 1 + 501).getData());
+        wide.setExpanded(false);
+        assertEquals(child1, root.get(10));
+        wide.setExpanded(true);
+        assertEquals("wide_500", root.get(9 + 1 + 501).getData());
+
+        assertEquals(500, wide.remove(middle));
+        while (wide.directChildCount() > 1) wide.remove(wide.getDirectChild(0));
+        assertEquals("wide_" + Node.WIDE_CHILDREN, wide.getDirectChild(0).getData());
+        assertEquals(11 + 2, root.size());
+    }
+
+    @Test
+    public void position() {
+        assertEquals(-1, root.position());
+        assertEquals(0, child0.position());
+        assertEquals(6, child0_4_0.position());
+        assertEquals(10, child2.position());
+
+        child0_4.setExpanded(false);
+        assertEquals(-1, child0_4_0.position());
+        assertEquals(7, child1.position());
+    }
+
+    @Test
+    public void moveTo_movesSubtreeAndReportsPositions() {
+        NodeMove move = child0_4.moveTo(child2);
+        assertEquals(5, move.getFromPosition());
+        assertEquals(8, move.getToPosition());
+        assertEquals(child2, child0_4.getParent());
+        assertEquals(5, child0.directChildCount());
+        assertEquals(11, root.size());
+        assertEquals(child2, root.get(7));
+        assertEquals(child0_4, root.get(8));
+        assertEquals(child0_4_1, root.get(10));
+
+        move = child0_4.moveTo(root, 0);
+        assertEquals(8, move.getFromPosition());
+        assertEquals(0, move.getToPosition());
+        assertEquals(child0_4_0, root.get(1));
+        assertEquals(child0, root.get(3));
+        assertEquals(0, child2.directChildCount());
+    }
+
+    @Test
+    public void moveTo_withinSameParent() {
+        NodeMove move = child0_0.moveTo(child0, 5);
+        assertEquals(1, move.getFromPosition());
+        assertEquals(8, move.getToPosition());
+        assertEquals(child0_0, child0.getDirectChild(5));
+        assertEquals(child0_1, root.get(1));
+        assertEquals(11, root.size());
+    }
+
+    @Test
+    public void moveTo_intoCollapsedParent() {
+        child2.setExpanded(false);
+        NodeMove move = child0_4.moveTo(child2);
+        assertEquals(5, move.getFromPosition());
+        assertEquals(-1, move.getToPosition());
+        assertEquals(8, root.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void moveTo_ownSubtree_throws() {
+        child0.moveTo(child0_4_1);
+    }
+
+    @Test
+    public void forEachVisible() {
+        child0_4_0.add("child0_4_0_0");
+        child0_3.setExpanded(false);
+        child0_3.add("hidden");
+
+        List<String> rows = new ArrayList<>();
+        root.forEachVisible(5, 10, (node, depth) -> rows.add(node.getData() + "@" + depth));
+        List<String> expected = new ArrayList<>();
+        expected.add("child0_4@1");
+        expected.add("child0_4_0@2");
+        expected.add("child0_4_0_0@3");
+        expected.add("child0_4_1@2");
+        expected.add("child0_5@1");
+        assertEquals(expected, rows);
+
+        rows.clear();
+        child0_4.forEachVisible(0, child0_4.size(), (node, depth) -> rows.add(node.getData() + "@" + depth));
+        //depths are relative to the node being walked
+        expected.clear();
+        expected.add("child0_4@0");
+        expected.add("child0_4_0@1");
+        expected.add("child0_4_0_0@2");
+        expected.add("child0_4_1@1");
+        assertEquals(expected, rows);
+
+        try {
+            root.forEachVisible(0, root.size() + 1, (node, depth) -> fail());
+            fail();
+        } catch (Node.NodeIndexOutOfBoundsException exception) {
+            assertEquals(root.size() + 1, exception.getPosition());
+        }
+    }
+
+    @Test
+    public void window() {
+        List<Node<String>> window = root.window(8, 40);
+        assertEquals(3, window.size());
+        assertEquals(child0_5, window.get(0));
+        assertEquals(child1, window.get(1));
+        assertEquals(child2, window.get(2));
+
+        assertTrue(root.window(11, 40).isEmpty());
+        assertEquals(child0, root.window(0, 1).get(0));
+    }
+
+    @Test
+    public void stream() {
+        child0_4.setExpanded(false);
+        List<Node<String>> visible = root.stream().collect(Collectors.toList());
+        assertEquals(9, visible.size());
+        assertEquals(child0_4, visible.get(5));
+        assertEquals(child0_5, visible.get(6));
+
+        List<Node<String>> all = root.stream(NodeScope.ALL).collect(Collectors.toList());
+        assertEquals(11, all.size());
+        assertEquals(child0_4_0, all.get(6));
+        assertEquals(child2, all.get(10));
+        assertEquals(11, root.size(NodeScope.ALL));
+        assertEquals(3, child0_4.size(NodeScope.ALL));
+    }
+
+    @Test
+    public void spliterator_splitsIntoExactlySizedHalves() {
+        Spliterator<Node<String>> spliterator = root.spliterator();
+        assertEquals(11, spliterator.getExactSizeIfKnown());
+
+        Spliterator<Node<String>> prefix = spliterator.trySplit();
+        assertEquals(11, prefix.getExactSizeIfKnown() + spliterator.getExactSizeIfKnown());
+        List<Node<String>> nodes = new ArrayList<>();
+        prefix.forEachRemaining(nodes::add);
+        spliterator.forEachRemaining(nodes::add);
+        assertEquals(root.stream().collect(Collectors.toList()), nodes);
+    }
+
+    @Test
+    public void parallelStream_visitsEveryNodeOnce() {
+        Node<Integer> big = new Node<>();
+        for (int i = 0; i < 50; i++) {
+            Node<Integer> child = big.add(i);
+            for (int j = 0; j < 200; j++) child.add(i * 1000 + j).add(-1);
+            if (i % 3 == 0) child.setExpanded(false);
+        }
+
+        assertEquals(big.size(), big.parallelStream().count());
+        assertEquals(big.size(NodeScope.ALL), big.parallelStream(NodeScope.ALL).count());
+        assertEquals(big.stream().map(Node::getData).collect(Collectors.toList()),
+                big.parallelStream().map(Node::getData).collect(Collectors.toList()));
+        assertEquals(big.stream(NodeScope.ALL).mapToLong(Node::getData).sum(),
+                big.parallelStream(NodeScope.ALL).mapToLong(Node::getData).sum());
+    }
+
+    @Test
+    public void visit_preOrder() {
+        child0_4.setExpanded(false);
+        List<String> events = new ArrayList<>();
+        root.visit(new TreeVisitor<String>() {
+            @Override
+            public VisitResult enter(Node<String> node, int depth) {
+                events.add("+" + node.getData() + "@" + depth);
+                return node == child0 ? VisitResult.CONTINUE : VisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public VisitResult leave(Node<String> node, int depth) {
+                events.add("-" + node.getData() + "@" + depth);
+                return VisitResult.CONTINUE;
+            }
+        }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+
+        assertEquals(9 + 1, events.size());
+        assertEquals("+child0@0", events.get(0));
+        assertEquals("+child0_0@1", events.get(1));
+        assertEquals("+child0_4@1", events.get(5));
+        assertEquals("+child0_5@1", events.get(6));
+        assertEquals("-child0@0", events.get(7));
+        assertEquals("+child1@0", events.get(8));
+    }
+
+    @Test
+    public void visit_postOrderOverVisibleNodes() {
+        child0_4.setExpanded(false);
+        List<String> entered = new ArrayList<>();
+        boolean finished = root.visit((node, depth) -> {
+            entered.add(node.getData());
+            return VisitResult.CONTINUE;
+        }, TraversalOrder.POST_ORDER, NodeScope.VISIBLE);
+
+        assertTrue(finished);
+        assertEquals(9, entered.size());
+        assertEquals("child0_0", entered.get(0));
+        assertEquals("child0_4", entered.get(4));
+        assertEquals("child0", entered.get(6));
+        assertEquals("child2", entered.get(8));
+    }
+
+    @Test
+    public void visit_breadthFirstStops() {
+        List<String> entered = new ArrayList<>();
+        boolean finished = root.visit((node, depth) -> {
+            entered.add(node.getData() + "@" + depth);
+            return node == child0_1 ? VisitResult.STOP : VisitResult.CONTINUE;
+        }, TraversalOrder.BREADTH_FIRST, NodeScope.ALL);
+
+        assertFalse(finished);
+        assertEquals(5, entered.size());
+        assertEquals("child2@0", entered.get(2));
+        assertEquals("child0_0@1", entered.get(3));
+        assertEquals("child0_1@1", entered.get(4));
+    }
+
+    @Test
+    public void aggregate() {
+        NodeAggregate<String, Integer> count = NodeAggregate.of(0, data -> 1, Integer::sum);
+        NodeAggregate<String, String> concat = NodeAggregate.of("", data -> data.substring(5) + ",", String::concat);
+        assertEquals(11, (int) root.aggregate(count));
+        assertEquals(3, (int) child0_4.aggregate(count));
+        assertEquals("0,0_0,0_1,0_2,0_3,0_4,0_4_0,0_4_1,0_5,1,2,", root.aggregate(concat));
+
+        child0_4.setExpanded(false);
+        assertEquals(11, (int) root.aggregate(count));
+        assertEquals(9, (int) root.aggregate(count, NodeScope.VISIBLE));
+        assertEquals(1, (int) child0_4.aggregate(count, NodeScope.VISIBLE));
+        assertEquals(1, (int) child0_4_0.aggregate(count, NodeScope.VISIBLE)); //as if it was shown
+
+        child0_4_1.moveTo(child2);
+        assertEquals(8, (int) child0.aggregate(count));
+        assertEquals(2, (int) child2.aggregate(count));
+        child0.remove(child0_1);
+        assertEquals(10, (int) root.aggregate(count));
+        child1.setData("child9");
+        assertEquals("0,0_0,0_2,0_3,0_4,0_4_0,0_5,9,2,0_4_1,", root.aggregate(concat));
+        root.sort(Comparator.reverseOrder());
+        assertEquals("9,2,0_4_1,0,0_5,0_4,0_4_0,0_3,0_2,0_0,", root.aggregate(concat));
+
+        root.forgetAggregate(concat);
+        assertEquals("9,2,0_4_1,0,0_5,0_4,0_4_0,0_3,0_2,0_0,", root.aggregate(concat));
+    }
+
+    @Test
+    public void aggregate_forgottenBelowIsRecomputedAbove() {
+        NodeAggregate<String, Integer> count = NodeAggregate.of(0, data -> 1, Integer::sum);
+        assertEquals(11, (int) root.aggregate(count));
+        child0_4.forgetAggregate(count);
+        child0_4_0.setData("child0_4_0 changed");
+        child0_4.add(new Node<>("child0_4_2"));
+        assertEquals(12, (int) root.aggregate(count));
+
+        NodeAggregate<String, String> concat = NodeAggregate.of("", data -> data.substring(5) + ",", String::concat);
+        assertEquals("0,0_0,0_1,0_2,0_3,0_4,0_4_0 changed,0_4_1,0_4_2,0_5,1,2,", root.aggregate(concat));
+        child0_4.forgetAggregate(count);
+        child0_4.forgetAggregate(concat);
+        child0_4_0.setData("child0_4_0 again");
+        assertEquals("0,0_0,0_1,0_2,0_3,0_4,0_4_0 again,0_4_1,0_4_2,0_5,1,2,", root.aggregate(concat));
+    }
+
+    @Test
+    public void aggregate_oldestIsEvictedByNewInstances() {
+        NodeAggregate<String, String> concat = NodeAggregate.of("", data -> data.substring(5) + ",", String::concat);
+        assertEquals("0,0_0,0_1,0_2,0_3,0_4,0_4_0,0_4_1,0_5,1,2,", root.aggregate(concat));
+        List<NodeAggregate<String, Integer>> counts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            NodeAggregate<String, Integer> count = NodeAggregate.of(0, data -> 1, Integer::sum);
+            assertEquals(3, (int) child0_4.aggregate(count));
+            counts.add(count);
+        }
+        //the values below child0_4 were evicted, so the ones above have to go as well
+        for (NodeAggregate<String, Integer> count : counts) child0_4.forgetAggregate(count);
+        child0_4_1.setData("child0_4_1 changed");
+        assertEquals("0,0_0,0_1,0_2,0_3,0_4,0_4_0,0_4_1 changed,0_5,1,2,", root.aggregate(concat));
+        assertEquals(3, (int) child0_4.aggregate(counts.get(0)));
+    }
+
+    @Test
+    public void aggregate_randomChangesMatchRecomputing() {
+        Random random = new Random(5);
+        NodeAggregate<Integer, Long> sum = NodeAggregate.of(0L, data -> (long) data, Long::sum);
+        Node<Integer> top = new Node<>();
+        List<Node<Integer>> nodes = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            int action = random.nextInt(10);
+            if (nodes.isEmpty() || action < 5) {
+                Node<Integer> node = new Node<>(i);
+                if (nodes.isEmpty() || random.nextInt(5) == 0) top.add(node);
+                else nodes.get(random.nextInt(nodes.size())).add(node);
+                nodes.add(node);
+            } else if (action < 7) {
+                nodes.get(random.nextInt(nodes.size())).toggleExpanded();
+            } else if (action < 8) {
+                nodes.get(random.nextInt(nodes.size())).setData(random.nextInt(1000));
+            } else if (action < 9) {
+                Node<Integer> node = nodes.get(random.nextInt(nodes.size()));
+                Node<Integer> parent = nodes.get(random.nextInt(nodes.size()));
+                if (parent != node && !node.labels().isAncestorOf(node, parent)) node.moveTo(parent);
+            } else {
+                Node<Integer> node = nodes.get(random.nextInt(nodes.size()));
+                Node<? super Integer> parent = node.getParent();
+                if (parent != null) {
+                    ((Node<Integer>) parent).remove(node);
+                    node.visit((n, depth) -> {
+                        nodes.remove(n);
+                        return VisitResult.CONTINUE;
+                    }, TraversalOrder.PRE_ORDER, NodeScope.ALL);
+                    nodes.remove(node);
+                }
+            }
+
+            if (i % 50 == 0) {
+                Node<Integer> node = random.nextBoolean() ? top : nodes.get(random.nextInt(nodes.size()));
+                long all = node.stream(NodeScope.ALL).mapToLong(Node::getData).sum();
+                assertEquals(all, (long) node.aggregate(sum));
+                if (node.isExpanded()) {
+                    long visible = node.stream().mapToLong(Node::getData).sum();
+                    assertEquals(visible, (long) node.aggregate(sum, NodeScope.VISIBLE));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void saveAndRestoreExpansionState() {
+        child0_4.setExpanded(false);
+        child2.setExpanded(false);
+        BitSet state = root.saveExpansionState();
+        assertEquals(9, root.size());
+        assertFalse(state.get(5)); //child0_4 in pre-order
+
+        child0.setExpanded(false);
+        child0_4.setExpanded(true);
+        assertEquals(3, root.size());
+
+        root.restoreExpansionState(state);
+        assertEquals(9, root.size());
+        assertTrue(child0.isExpanded());
+        assertFalse(child0_4.isExpandedFlag());
+        assertEquals(1, child0_4.size());
+        assertEquals(7, child0.size());
+        assertEquals("child1", root.get(7).getData());
+    }
+
+    @Test
+    public void restoreExpansionStateByKey() {
+        child0_4.setExpanded(false);
+        Map<String, Boolean> state = root.saveExpansionState(data -> data);
+
+        Node<String> rebuilt = new Node<>();
+        Node<String> newChild0 = rebuilt.add("child0");
+        newChild0.add("new").add("new child");
+        newChild0.add("child0_4").add("child0_4_0");
+        rebuilt.add("child1");
+        rebuilt.restoreExpansionState(state, data -> data);
+
+        assertEquals(5, rebuilt.size());
+        assertFalse(newChild0.getDirectChild(1).isExpanded());
+        assertTrue(newChild0.getDirectChild(0).isExpanded());
+    }
+
+    @Test
+    public void reveal() {
+        child0.setExpanded(false);
+        child0_4.setExpanded(false);
+        assertEquals(-1, child0_4_1.position());
+
+        assertEquals(7, child0_4_1.reveal());
+        assertTrue(child0_4_1.isExpanded());
+        assertEquals(child0_4_1, root.get(7));
+        assertEquals(-1, root.reveal());
+    }
+
+    @Test
+    public void revealInvalidatesTheSizesOnce() {
+        child0.setExpanded(false);
+        child0_4.setExpanded(false);
+        assertEquals(3, root.size());
+
+        int[] walked = new int[1];
+        Node.setMetrics(new NodeMetrics() {
+            @Override
+            public void invalidated(int count) {
+                walked[0] += count;
+            }
+        });
+        try {
+            assertEquals(7, child0_4_1.reveal());
+            assertEquals(3, walked[0]); //child0_4, child0 and root
+        } finally {
+            Node.setMetrics(null);
+        }
+        assertEquals(11, root.size());
+        assertEquals(9, child0.size());
+        assertEquals(3, child0_4.size());
+    }
+
+    @Test
+    public void getStepsFromAPathFoundOnAnotherThread() throws InterruptedException {
+        Thread reader = new Thread(() -> {
+            root.get(7);
+            root.get(6);
+        });
+        reader.start();
+        reader.join();
+
+        int[] visited = new int[1];
+        Node.setMetrics(new NodeMetrics() {
+            @Override
+            public void located(int count) {
+                visited[0] = count;
+            }
+        });
+        try {
+            assertEquals(child0_4, root.get(5));
+            assertEquals(2, visited[0]); //stepped back from child0_4_0, found by the other thread
+        } finally {
+            Node.setMetrics(null);
+        }
+    }
+
+    @Test
+    public void metricsCountTheHotPaths() {
+        int[] counts = new int[3];
+        Node.setMetrics(new NodeMetrics() {
+            @Override
+            public void sizeRecomputed(int children) {
+                counts[0]++;
+            }
+
+            @Override
+            public void invalidated(int walked) {
+                counts[1] += walked;
+            }
+
+            @Override
+            public void located(int visited) {
+                counts[2] = visited;
+            }
+        });
+        try {
+            assertEquals(child0_4_1, root.get(7));
+            assertEquals(4, counts[2]); //root, child0, child0_4 and child0_4_1
+            assertEquals(child0_4_0, root.get(6));
+            assertEquals(4, counts[2]); //found from the top, keeping the path for the next lookup
+            assertEquals(child0_4, root.get(5));
+            assertEquals(2, counts[2]); //stepped back from the last position found
+
+            child0_4_1.setExpanded(false);
+            assertEquals(4, counts[1]);
+            counts[0] = 0;
+            assertEquals(11, root.size());
+            assertEquals(3, counts[0]); //root, child0 and child0_4 summed their children again
+            assertEquals(11, root.size());
+            assertEquals(3, counts[0]);
+        } finally {
+            Node.setMetrics(null);
+        }
+        assertNull(Node.getMetrics());
+    }
+
+    @Test
+    public void get_nearbyPositionsFollowChanges() {
+        Random random = new Random(12);
+        Node<Integer> top = new Node<>();
+        List<Node<Integer>> nodes = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Node<Integer> parent = nodes.isEmpty() || random.nextInt(5) == 0 ? top : nodes.get(random.nextInt(nodes.size()));
+            nodes.add(parent.add(i));
+        }
+
+        int position = 0;
+        for (int i = 0; i < 3_000; i++) {
+            int action = random.nextInt(20);
+            Node<Integer> node = nodes.get(random.nextInt(nodes.size()));
+            if (action == 0) node.toggleExpanded();
+            else if (action == 1) {
+                Node<Integer> child = new Node<>(-i);
+                if (node.getComparator() == null) node.add(child, random.nextInt(node.directChildCount() + 1));
+                else node.add(child);
+                nodes.add(child);
+            } else if (action == 2 && node.directChildCount() > 0) {
+                Node<? extends Integer> child = node.getDirectChild(random.nextInt(node.directChildCount()));
+                node.remove(child);
+                nodes.removeIf(removed -> removed.top() != top);
+            } else if (action == 3) node.setComparator(Comparator.reverseOrder());
+
+            List<Node<Integer>> visible = top.window(0, top.size());
+            int step = random.nextInt(10) == 0 ? random.nextInt(100) - 50 : random.nextInt(5) - 2;
+            position = Math.max(0, Math.min(visible.size() - 1, position + step));
+            assertSame(visible.get(position), top.get(position));
+        }
+    }
+
+    @Test
+    public void getChildren_followsTheChildrenWhenTheyGetWide() {
+        Node<Integer> top = new Node<>();
+        List<Node<? extends Integer>> children = top.getChildren();
+        for (int i = 0; i <= Node.WIDE_CHILDREN; i++) top.add(i);
+        assertEquals(Node.WIDE_CHILDREN + 1, children.size());
+        assertEquals(Integer.valueOf(Node.WIDE_CHILDREN), children.get(Node.WIDE_CHILDREN).getData());
+
+        while (top.directChildCount() > 1) top.remove(top.getDirectChild(0));
+        assertEquals(1, children.size());
+        assertSame(top.getDirectChild(0), children.iterator().next());
+        try {
+            children.remove(0);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        Node<Integer> copy = top.copyLazily();
+        List<Node<? extends Integer>> copiedChildren = copy.getChildren();
+        copy.add(-1);
+        assertEquals(2, copiedChildren.size());
+    }
+
+    @Test
+    public void copy_keepsExpansionAndSizes() {
+        Node<String> top = createComplexNode();
+        Node<String> child1 = (Node<String>) top.getDirectChild(0);
+        child1.getDirectChild(0).setExpanded(false);
+        child1.setComparator(Comparator.reverseOrder());
+        Node<String> wide = top.add("wide");
+        for (int i = 0; i < Node.WIDE_CHILDREN + 10; i++) wide.add("w" + i).add("w" + i + ".0");
+        int size = top.size();
+
+        Node<String> copy = top.copy();
+        assertEquals(top, copy);
+        assertEquals(size, copy.size());
+        assertEquals(top.childCount(), copy.childCount());
+        assertEquals(top.window(0, size), copy.window(0, size));
+        assertFalse(copy.getDirectChild(0).getDirectChild(0).isExpanded());
+        assertNotSame(top.getDirectChild(0), copy.getDirectChild(0));
+        assertSame(copy, copy.getDirectChild(0).getParent());
+        assertSame(top.getDirectChild(0).getData(), copy.getDirectChild(0).getData());
+
+        Node<String> copiedChild1 = (Node<String>) copy.getDirectChild(0);
+        copiedChild1.add("child 1.0");
+        assertEquals("child 1.1", copiedChild1.getDirectChild(0).getData()); //kept sorted by the copied comparator
+        copy.getDirectChild(2).getDirectChild(5).setExpanded(false);
+        assertEquals(size, top.size());
+        assertEquals(size, copy.size()); //one node added and one hidden
+        assertEquals(1, child1.directChildCount());
+
+        Node<String> subtree = child1.copy();
+        assertNull(subtree.getParent());
+        assertEquals(child1.childCount(), subtree.childCount());
+        assertEquals(child1.size() - 1, subtree.size()); //the copy is a top, which isn't one of its own positions
+    }
+
+    @Test
+    public void copyLazily_sharesUntilEitherSideChanges() {
+        Node<String> top = new Node<>();
+        Node<String> template = top.add("template");
+        for (int i = 0; i < 5; i++) {
+            Node<String> child = template.add("t" + i);
+            for (int j = 0; j < 3; j++) child.add("t" + i + "." + j).add("t" + i + "." + j + ".0");
+        }
+        template.getDirectChild(1).setExpanded(false);
+        Node<String> snapshot = template.copy();
+
+        Node<String> copy = template.copyLazily();
+        assertEquals(template.childCount(), copy.childCount());
+        Node<String> live = new Node<>();
+        live.add(copy);
+        copy.setData("renamed");
+        assertSame(live, copy.getParent());
+
+        //the source changing finishes the copy first
+        ((Node<String>) template.getDirectChild(3).getDirectChild(2)).add("new");
+        template.getDirectChild(4).getDirectChild(0).setExpanded(false);
+        copy.setData("template");
+        live.remove(copy);
+        assertEquals(snapshot, copy);
+
+        //nodes leaving the copy finish it before they're moved
+        Node<String> other = template.copyLazily();
+        Node<String> before = template.copy();
+        Node<? extends String> leaving = other.getDirectChild(0).getDirectChild(0);
+        leaving.moveTo(live);
+        template.setData("changed");
+        ((Node<String>) template.getDirectChild(0).getDirectChild(0).getDirectChild(0)).setData("changed too");
+        assertEquals("t0.0.0", leaving.getDirectChild(0).getData());
+        assertEquals(before.getDirectChild(2), other.getDirectChild(2));
+    }
+
+    @Test
+    public void copyLazily_sortingAboveFinishesTheCopy() {
+        Node<String> top = new Node<>();
+        Node<String> d = top.add("d");
+        d.add("z");
+        d.add("y");
+        d.add("x").add("x0");
+        Node<String> copy = d.copyLazily();
+        top.sort(Comparator.naturalOrder());
+        assertEquals("x", d.getDirectChild(0).getData());
+        assertEquals("z", copy.getDirectChild(0).getData());
+        assertEquals("y", copy.getDirectChild(1).getData());
+        assertEquals("x", copy.getDirectChild(2).getData());
+        assertNull(copy.getDirectChild(0).getComparator());
+    }
+
+    @Test
+    public void copyLazily_restoringTheExpansionAboveFinishesTheCopy() {
+        Node<String> top = new Node<>();
+        Node<String> d = top.add("d");
+        Node<String> e = d.add("e");
+        e.add("e1");
+        e.add("e2");
+        d.add("f");
+        Node<String> copy = d.copyLazily();
+        top.restoreExpansionState(new BitSet());
+        assertFalse(e.isExpandedFlag());
+        assertEquals(4, copy.size());
+        assertTrue(copy.getDirectChild(0).isExpandedFlag());
+    }
+
+    @Test
+    public void copyLazily_finishedCopiesAreForgotten() {
+        Node<String> source = new Node<>("source");
+        source.add("a").add("a0");
+        int before = Node.unfinishedLazyCopies();
+        List<Node<String>> copies = new ArrayList<>();
+        for (int i = 0; i < 100; i++) copies.add(source.copyLazily());
+        assertEquals(before + 100, Node.unfinishedLazyCopies());
+
+        copies.get(0).getDirectChild(0).moveTo(new Node<>());
+        assertTrue(Node.unfinishedLazyCopies() <= before + 99);
+        source.setData("changed");
+        assertTrue(Node.unfinishedLazyCopies() <= before); //others may have been garbage collected meanwhile
+        for (Node<String> copy : copies.subList(1, copies.size())) assertEquals("a0", copy.getDirectChild(0).getDirectChild(0).getData());
+    }
+
+    @Test
+    public void copyLazily_randomChanges() {
+        Random random = new Random(45);
+        Node<Integer> top = new Node<>();
+        List<Node<Integer>> nodes = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            Node<Integer> parent = nodes.isEmpty() || random.nextInt(6) == 0 ? top : nodes.get(random.nextInt(nodes.size()));
+            nodes.add(parent.add(i));
+        }
+
+        for (int round = 0; round < 200; round++) {
+            Node<Integer> source = nodes.get(random.nextInt(nodes.size()));
+            Node<Integer> snapshot = source.copy();
+            Node<Integer> copy = source.copyLazily();
+            boolean changeSource = random.nextBoolean();
+            Node<Integer> changed = changeSource ? source : copy;
+            Node<Integer> unchanged = changeSource ? copy : source;
+            Node<Integer> expected = changeSource ? snapshot : source.copy();
+            Node<Integer> above = changeSource ? top : changed; //changes to whole subtrees reach the source from above
+
+            for (int i = 0; i < 10; i++) {
+                List<Node<Integer>> inChanged = changed.stream(NodeScope.ALL).collect(Collectors.toList());
+                Node<Integer> node = inChanged.isEmpty() || random.nextInt(5) == 0 ? changed : inChanged.get(random.nextInt(inChanged.size()));
+                int action = random.nextInt(8);
+                if (action == 0) node.toggleExpanded();
+                else if (action == 1 && node != changed) node.setData(-round);
+                else if (action == 2) nodes.add(node.add(1000 + round));
+                else if (action == 3 && node.directChildCount() > 0) node.remove(node.getDirectChild(0));
+                else if (action == 4 && node != changed && node.getParent() != changed) node.moveTo(changed);
+                else if (action == 6) above.sort(random.nextBoolean() ? Comparator.naturalOrder() : Comparator.reverseOrder());
+                else if (action == 7) above.restoreExpansionState(BitSet.valueOf(new long[]{random.nextLong()}));
+                else if (unchanged.size() > 0) unchanged.get(random.nextInt(unchanged.size())); //reading copies some levels
+            }
+            assertEquals(expected, unchanged.copy());
+            nodes.removeIf(node -> node.top() != top);
+        }
+    }
+
     private Node<String> createComplexNode() {
         Node<String> equalsComplex = new Node<String>();
         equalsComplex.add("child 1").add("child 1.1").add("child 1.1.1");
@@ -1,10 +1,27 @@
 package com.innercirclesoftware.expandable_tree
 
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeout
+import kotlinx.coroutines.yield
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertFalse
 import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
 import org.junit.Assert.assertTrue
 import org.junit.Test
+import java.util.ArrayDeque
+import java.util.concurrent.Executors
+import java.util.concurrent.Flow
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.CoroutineContext
 
 class NodesKtTest {
 
@@ -97,4 +114,150 @@ class NodesKtTest {
 
         assertEquals(expected, actual)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `toTree() rebuilds a flattened tree`() {
+        val expected = listOf(
+                "child 1" to 0,
+                "child 1.1" to 1,
+                "child 1.1.1" to 2,
+                "child 1.2" to 1,
+                "child 2" to 0
+        ).asDepthList()
+
+        val tree = expected.toTree()
+        assertTrue(tree.isRoot)
+        assertEquals(5, tree.size())
+        assertEquals(expected, tree.flatten())
+    }
+
+    @Test
+    fun `toTree() restores the expansion`() {
+        val tree = listOf("child 1" to 0, "child 1.1" to 1, "child 2" to 0).asDepthList()
+                .toTree { it.item != "child 1" }
+
+        assertFalse(tree.children[0].isExpanded)
+        assertEquals(2, tree.size())
+        assertEquals(3, tree.childCount())
+    }
+
+    @Test
+    fun `visibleWindow() takes the rows in the range`() {
+        val tree = listOf("a" to 0, "a0" to 1, "b" to 0, "c" to 0).asDepthList().toTree()
+        val window = tree.visibleWindow(1..10)
+        assertEquals(1, window.from)
+        assertEquals(4, window.size)
+        assertEquals(listOf("a0" to 1, "b" to 0, "c" to 0).asDepthList(), window.rows)
+    }
+
+    @Test
+    fun `visibleWindowFlow() emits after changes, conflating bursts`() = runBlocking {
+        val tree = listOf("a" to 0, "a0" to 1, "b" to 0).asDepthList().toTree()
+        val windows = Channel<VisibleWindow<String>>(Channel.UNLIMITED)
+        val job = launch { tree.visibleWindowFlow(0..1).collect { windows.send(it) } }
+
+        assertEquals(listOf("a", "a0"), windows.receive().rows.map { it.item })
+        tree.children[0].setExpanded(false)
+        tree.add("c")
+        val d = tree.add("d")
+        assertEquals(listOf("a", "b"), windows.receive().rows.map { it.item })
+        repeat(3) { yield() }
+        assertTrue(windows.isEmpty)
+
+        d.data = "D" //outside of the window, so the rows are equal
+        repeat(3) { yield() }
+        assertTrue(windows.isEmpty)
+
+        job.cancel()
+        job.join()
+        assertTrue(tree.tree()!!.listeners.isEmpty())
+    }
+
+    @Test
+    fun `visibleWindowFlow() builds the window after removals, even with an immediate dispatcher`() = runBlocking {
+        val tasks = ArrayDeque<Runnable>()
+        val immediate = object : CoroutineDispatcher() {
+            override fun isDispatchNeeded(context: CoroutineContext) = false
+            override fun dispatch(context: CoroutineContext, block: Runnable) {
+                tasks.add(block)
+            }
+        }
+        val tree = listOf("a" to 0, "b" to 0, "c" to 0).asDepthList().toTree()
+        val windows = Channel<VisibleWindow<String>>(Channel.UNLIMITED)
+        val job = launch(immediate) { tree.visibleWindowFlow(0..1).collect { windows.send(it) } }
+        assertEquals(listOf("a", "b"), windows.receive().rows.map { it.item })
+
+        tree.remove(tree.children[0])
+        while (tasks.isNotEmpty()) tasks.removeFirst().run()
+        assertEquals(listOf("b", "c"), withTimeout(5_000) { windows.receive() }.rows.map { it.item })
+        tree.clear()
+        while (tasks.isNotEmpty()) tasks.removeFirst().run()
+        assertEquals(0, withTimeout(5_000) { windows.receive() }.size)
+        job.cancel()
+    }
+
+    @Test
+    fun `visibleWindowFlow() can't be collected unconfined`() = runBlocking {
+        val tree = listOf("a" to 0).asDepthList().toTree()
+        val failure = runCatching {
+            withTimeout(5_000) { withContext(Dispatchers.Unconfined) { tree.visibleWindowFlow(0..1).collect() } }
+        }.exceptionOrNull()
+        assertTrue(failure is IllegalStateException && failure !is CancellationException)
+    }
+
+    @Test
+    fun `visibleWindowFlow() follows the node when its top is added to another tree`() = runBlocking {
+        val tree = Node("tree")
+        tree.add("a")
+        tree.add("b")
+        val windows = Channel<VisibleWindow<String>>(Channel.UNLIMITED)
+        val job = launch { tree.visibleWindowFlow(0..1).collect { windows.send(it) } }
+        assertEquals(listOf("a", "b"), windows.receive().rows.map { it.item })
+
+        val other = Node<String>()
+        other.add(tree)
+        tree.add(Node("c"), 0)
+        //a node with a parent is the first of its own positions
+        assertEquals(listOf("tree", "c"), withTimeout(5_000) { windows.receive() }.rows.map { it.item })
+        other.add(Node("d"), 0)
+        tree.add(Node("e"), 0)
+        assertEquals(listOf("tree", "e"), withTimeout(5_000) { windows.receive() }.rows.map { it.item })
+        job.cancel()
+        job.join()
+        assertTrue(other.tree()!!.listeners.isEmpty())
+    }
+
+    @Test
+    fun `visibleWindowPublisher() delivers the latest window on request`() {
+        val executor = Executors.newSingleThreadExecutor { Thread(it, "tree") }
+        try {
+            val tree = listOf("a" to 0, "b" to 0).asDepthList().toTree()
+            val received = LinkedBlockingQueue<VisibleWindow<String>>()
+            var subscription: Flow.Subscription? = null
+            tree.visibleWindowPublisher(0, 2, executor).subscribe(object : Flow.Subscriber<VisibleWindow<String>> {
+                override fun onSubscribe(s: Flow.Subscription) {
+                    subscription = s
+                    s.request(1)
+                }
+
+                override fun onNext(item: VisibleWindow<String>) {
+                    if (Thread.currentThread().name == "tree") received.add(item)
+                }
+
+                override fun onError(throwable: Throwable) = throw AssertionError(throwable)
+                override fun onComplete() = throw AssertionError()
+            })
+
+            assertEquals(listOf("a", "b"), received.poll(5, TimeUnit.SECONDS)!!.rows.map { it.item })
+            executor.submit { tree.add(Node("x"), 0) }.get()
+            executor.submit { tree.add(Node("y"), 0) }.get()
+            assertNull(received.poll(200, TimeUnit.MILLISECONDS)) //nothing requested
+
+            subscription!!.request(1) //delivered on the executor, not on this thread
+            assertEquals(listOf("y", "x"), received.poll(5, TimeUnit.SECONDS)!!.rows.map { it.item })
+            subscription!!.cancel()
+        } finally {
+            executor.shutdown()
+        }
+    }
+}
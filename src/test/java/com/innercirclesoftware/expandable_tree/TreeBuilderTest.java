@@ -0,0 +1,103 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TreeBuilderTest {
+
+    @Test
+    public void buildsInPreOrder() {
+        Node<String> root = new TreeBuilder<String>()
+                .add("a", 0)
+                .add("a0", 1)
+                .add("a0x", 2)
+                .add("a1", 1)
+                .add("b", 0)
+                .build();
+
+        assertEquals(5, root.size());
+        assertEquals(5, root.childCount());
+        assertEquals("a0x", root.get(2).getData());
+        assertEquals("b", root.get(4).getData());
+        assertSame(root.get(0), root.get(3).getParent());
+        assertEquals(4, root.get(4).position());
+    }
+
+    @Test
+    public void collapsedNodesHideTheirChildren() {
+        Node<String> root = new TreeBuilder<String>()
+                .add("a", 0, false)
+                .add("a0", 1)
+                .add("a0x", 2)
+                .add("b", 0)
+                .build();
+
+        assertEquals(2, root.size());
+        assertEquals("b", root.get(1).getData());
+        Node<String> a = root.get(0);
+        assertFalse(a.isExpanded());
+        assertEquals(0, a.getDirectChild(0).size());
+
+        a.setExpanded(true);
+        assertEquals(4, root.size());
+        assertEquals("a0x", root.get(2).getData());
+    }
+
+    @Test
+    public void depthCanOnlyGrowByOne() {
+        TreeBuilder<String> builder = new TreeBuilder<String>().add("a", 0);
+        try {
+            builder.add("a0x", 2);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            new TreeBuilder<String>().add("a", -1);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotAddAfterBuilding() {
+        TreeBuilder<String> builder = new TreeBuilder<>();
+        builder.build();
+        builder.add("a", 0);
+    }
+
+    @Test
+    public void randomTreesMatchRepeatedAdds() {
+        Random random = new Random(11);
+        TreeBuilder<Integer> builder = new TreeBuilder<>();
+        Node<Integer> expected = new Node<>();
+        List<Node<Integer>> path = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            int depth = random.nextInt(path.size() + 1);
+            boolean expanded = random.nextInt(5) != 0;
+            builder.add(i, depth, expanded);
+
+            Node<Integer> node = new Node<>(i);
+            node.setExpanded(expanded);
+            (depth == 0 ? expected : path.get(depth - 1)).add(node);
+            while (path.size() > depth) path.remove(path.size() - 1);
+            path.add(node);
+        }
+        Node<Integer> actual = builder.build();
+
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.childCount(), actual.childCount());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getData(), actual.get(i).getData());
+            assertEquals(expected.get(i).size(), actual.get(i).size());
+        }
+        assertEquals(expected.stream(NodeScope.ALL).count(), actual.stream(NodeScope.ALL).count());
+    }
+}
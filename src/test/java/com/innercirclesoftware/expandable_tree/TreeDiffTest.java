@@ -0,0 +1,181 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TreeDiffTest {
+
+    @Test
+    public void equalTreesHaveNoOperations() {
+        assertTrue(TreeDiff.diff(tree("a", 0, "a0", 1, "b", 0), tree("a", 0, "a0", 1, "b", 0)).isEmpty());
+        assertTrue(TreeDiff.diff(new Node<String>(), new Node<String>()).isEmpty());
+    }
+
+    @Test
+    public void insertsAndRemoves() {
+        TreeDiff diff = TreeDiff.diff(tree("a", 0, "b", 0, "c", 0, "d", 0), tree("a", 0, "x", 0, "y", 0, "d", 0));
+        assertEquals(Arrays.asList(DiffOperation.remove(1, 2), DiffOperation.insert(1, 2)), diff.getOperations());
+    }
+
+    @Test
+    public void movedRow() {
+        TreeDiff diff = TreeDiff.diff(tree("a", 0, "b", 0, "c", 0, "d", 0), tree("b", 0, "c", 0, "d", 0, "a", 0));
+        assertEquals(Collections.singletonList(DiffOperation.move(0, 3)), diff.getOperations());
+    }
+
+    @Test
+    public void changedRowsKeepTheirKey() {
+        Node<String> oldTree = tree("a:1", 0, "b:1", 0, "c:1", 1);
+        Node<String> newTree = tree("a:1", 0, "b:2", 0, "c:1", 0);
+        TreeDiff diff = TreeDiff.diff(oldTree, newTree, data -> data.substring(0, 1));
+        assertEquals(Collections.singletonList(DiffOperation.change(1, 2)), diff.getOperations());
+    }
+
+    @Test
+    public void collapsedChildrenAreNotRows() {
+        Node<String> oldTree = tree("a", 0, "a0", 1, "b", 0);
+        Node<String> newTree = tree("a", 0, "a0", 1, "b", 0);
+        newTree.getDirectChild(0).setExpanded(false);
+        assertEquals(Collections.singletonList(DiffOperation.remove(1, 1)), TreeDiff.diff(oldTree, newTree).getOperations());
+    }
+
+    @Test
+    public void flattenedLists() {
+        List<FlattenedNode<String>> oldRows = Arrays.asList(new FlattenedNode<>("a", 0), new FlattenedNode<>("b", 0));
+        List<FlattenedNode<String>> newRows = Arrays.asList(new FlattenedNode<>("b", 0), new FlattenedNode<>("a", 0));
+        assertEquals(Collections.singletonList(DiffOperation.move(0, 1)), TreeDiff.diff(oldRows, newRows, Function.identity()).getOperations());
+    }
+
+    @Test
+    public void randomEditsReplayToTheNewRows() throws Exception {
+        Random random = new Random(3);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int round = 0; round < 200; round++) {
+                List<String> oldRows = new ArrayList<>();
+                for (int i = 0; i < random.nextInt(300); i++) oldRows.add(Integer.toString(round * 1000 + i));
+                List<String> newRows = edit(oldRows, random);
+
+                Node<String> oldTree = flatTree(oldRows);
+                Node<String> newTree = flatTree(newRows);
+                TreeDiff diff = round % 2 == 0
+                        ? TreeDiff.diff(oldTree, newTree)
+                        : TreeDiff.diffAsync(oldTree, newTree, Function.identity(), executor).get();
+                assertEquals(newRows, replay(oldRows, newRows, diff));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void collidingRowsAreStillDiffed() {
+        //a Thue-Morse sequence and its complement have the same polynomial hash modulo 2^64 for any odd base
+        List<String> oldRows = new ArrayList<>();
+        List<String> newRows = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            boolean odd = Integer.bitCount(i) % 2 == 1;
+            oldRows.add(odd ? "x" : "y");
+            newRows.add(odd ? "y" : "x");
+        }
+
+        TreeDiff diff = TreeDiff.diff(flatTree(oldRows), flatTree(newRows));
+        assertFalse(diff.isEmpty());
+        assertEquals(newRows, replay(oldRows, newRows, diff));
+
+        //the same collision inside the subtree of a matched row
+        Node<String> oldTree = new Node<>();
+        Node<String> newTree = new Node<>();
+        Node<String> oldParent = oldTree.add("parent");
+        Node<String> newParent = newTree.add("parent");
+        for (int i = 0; i < oldRows.size(); i++) {
+            oldParent.add(oldRows.get(i));
+            newParent.add(newRows.get(i));
+        }
+        oldTree.add(new Node<>("before"), 0);
+        diff = TreeDiff.diff(oldTree, newTree);
+        List<String> oldFlat = new ArrayList<>();
+        oldFlat.add("before");
+        oldFlat.add("parent");
+        oldFlat.addAll(oldRows);
+        List<String> newFlat = new ArrayList<>();
+        newFlat.add("parent");
+        newFlat.addAll(newRows);
+        assertEquals(newFlat, replay(oldFlat, newFlat, diff));
+    }
+
+    @Test
+    public void unchangedSubtreesOfMovedRowsMove() {
+        Node<String> oldTree = tree("a", 0, "a0", 1, "a1", 1, "b", 0, "c", 0);
+        Node<String> newTree = tree("b", 0, "c", 0, "a", 0, "a0", 1, "a1", 1);
+        List<String> expected = Arrays.asList("b", "c", "a", "a0", "a1");
+        assertEquals(expected, replay(Arrays.asList("a", "a0", "a1", "b", "c"), expected, TreeDiff.diff(oldTree, newTree)));
+    }
+
+    private static List<String> edit(List<String> rows, Random random) {
+        List<String> edited = new ArrayList<>(rows);
+        int edits = random.nextInt(10);
+        for (int i = 0; i < edits; i++) {
+            int action = random.nextInt(3);
+            if (action == 0 || edited.isEmpty()) {
+                edited.add(random.nextInt(edited.size() + 1), "new" + random.nextInt(1_000_000));
+            } else if (action == 1) {
+                edited.remove(random.nextInt(edited.size()));
+            } else {
+                String moved = edited.remove(random.nextInt(edited.size()));
+                edited.add(random.nextInt(edited.size() + 1), moved);
+            }
+        }
+        return edited;
+    }
+
+    /**
+     * Apply the operations, taking inserted rows from the new rows as inserts are in their final positions
+     */
+    private static List<String> replay(List<String> rows, List<String> newRows, TreeDiff diff) {
+        List<String> replayed = new ArrayList<>(rows);
+        for (DiffOperation operation : diff.getOperations()) {
+            switch (operation.getType()) {
+                case INSERT:
+                    for (int i = 0; i < operation.getCount(); i++) replayed.add(operation.getPosition() + i, newRows.get(operation.getPosition() + i));
+                    break;
+                case REMOVE:
+                    for (int i = 0; i < operation.getCount(); i++) replayed.remove(operation.getPosition());
+                    break;
+                case MOVE:
+                    replayed.add(operation.getToPosition(), replayed.remove(operation.getPosition()));
+                    break;
+                case CHANGE:
+                    break;
+            }
+        }
+        return replayed;
+    }
+
+    private static Node<String> flatTree(List<String> rows) {
+        TreeBuilder<String> builder = new TreeBuilder<>();
+        for (String row : rows) builder.add(row, 0);
+        return builder.build();
+    }
+
+    /**
+     * @param rows pairs of data and depth
+     */
+    private static Node<String> tree(Object... rows) {
+        TreeBuilder<String> builder = new TreeBuilder<>();
+        for (int i = 0; i < rows.length; i += 2) builder.add((String) rows[i], (Integer) rows[i + 1]);
+        return builder.build();
+    }
+}
@@ -0,0 +1,152 @@
+package com.innercirclesoftware.expandable_tree;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TreeLabelsTest {
+
+    private Node<String> root;
+    private Node<String> a;
+    private Node<String> a0;
+    private Node<String> a1;
+    private Node<String> a1x;
+    private Node<String> b;
+
+    /**
+     * <p>a
+     * <p>--a0
+     * <p>--a1
+     * <p>----a1x
+     * <p>b
+     */
+    @Before
+    public void setUp() {
+        root = new Node<>();
+        a = new Node<>("a");
+        a0 = new Node<>("a0");
+        a1 = new Node<>("a1");
+        a1x = new Node<>("a1x");
+        b = new Node<>("b");
+        a1.add(a1x);
+        a.add(a0);
+        a.add(a1);
+        root.add(a);
+        root.add(b);
+    }
+
+    @Test
+    public void ancestors() {
+        TreeLabels labels = root.labels();
+        assertTrue(labels.isAncestorOf(root, a1x));
+        assertTrue(labels.isAncestorOf(a, a1x));
+        assertTrue(labels.isDescendantOf(a1x, a1));
+        assertFalse(labels.isAncestorOf(a0, a1x));
+        assertFalse(labels.isAncestorOf(a1x, a));
+        assertFalse(labels.isAncestorOf(a, a));
+        assertFalse(labels.isAncestorOf(b, a1x));
+        assertFalse(labels.isAncestorOf(a, new Node<>("other")));
+
+        assertEquals(0, labels.preOrderIndex(root));
+        assertEquals(4, labels.preOrderIndex(a1x));
+        assertEquals(4, labels.subtreeEnd(a));
+        assertEquals(3, labels.depth(a1x));
+        assertSame(labels, a1x.labels());
+    }
+
+    @Test
+    public void lowestCommonAncestor() {
+        TreeLabels labels = a0.labels();
+        assertSame(a, labels.lowestCommonAncestor(a0, a1x));
+        assertSame(a, labels.lowestCommonAncestor(a1x, a0));
+        assertSame(root, labels.lowestCommonAncestor(a1x, b));
+        assertSame(a1, labels.lowestCommonAncestor(a1, a1x));
+        assertSame(b, labels.lowestCommonAncestor(b, b));
+
+        try {
+            labels.lowestCommonAncestor(a, new Node<>("other"));
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void labelsFollowStructuralChanges() {
+        TreeLabels labels = root.labels();
+        assertTrue(labels.isAncestorOf(a, a1x));
+
+        a1x.moveTo(b);
+        assertFalse(labels.isAncestorOf(a, a1x));
+        assertTrue(labels.isAncestorOf(b, a1x));
+
+        Node<String> c = new Node<>("c");
+        a0.add(c);
+        assertSame(a, labels.lowestCommonAncestor(c, a1));
+
+        a.setExpanded(false);
+        assertTrue(labels.isAncestorOf(a, c)); //collapsed nodes keep their labels
+
+        a.remove(a0);
+        assertFalse(labels.isAncestorOf(root, c));
+        assertTrue(a0.labels().isAncestorOf(a0, c));
+    }
+
+    @Test
+    public void labelsOfAnAttachedTopAreInvalid() {
+        root.remove(a);
+        TreeLabels labels = a.labels();
+        assertTrue(labels.isAncestorOf(a, a1x));
+
+        root.add(a);
+        try {
+            labels.isAncestorOf(a, a1x);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException ignored) {
+        }
+        assertTrue(a.labels().isAncestorOf(root, a1x));
+    }
+
+    @Test
+    public void randomTreesMatchParentWalks() {
+        Random random = new Random(7);
+        Node<Integer> top = new Node<>();
+        List<Node<Integer>> nodes = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            Node<Integer> node = new Node<>(i);
+            if (nodes.isEmpty() || random.nextInt(10) == 0) top.add(node);
+            else nodes.get(random.nextInt(nodes.size())).add(node);
+            nodes.add(node);
+        }
+
+        TreeLabels labels = top.labels();
+        for (int i = 0; i < 2_000; i++) {
+            Node<Integer> x = nodes.get(random.nextInt(nodes.size()));
+            Node<Integer> y = nodes.get(random.nextInt(nodes.size()));
+            assertEquals(isAncestor(x, y), labels.isAncestorOf(x, y));
+            assertSame(walkLca(x, y), labels.lowestCommonAncestor(x, y));
+        }
+    }
+
+    private static boolean isAncestor(Node<?> ancestor, Node<?> node) {
+        for (Node<?> parent = node.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent == ancestor) return true;
+        }
+        return false;
+    }
+
+    private static Node<?> walkLca(Node<?> x, Node<?> y) {
+        for (Node<?> node = x; node != null; node = node.getParent()) {
+            if (node == y || isAncestor(node, y)) return node;
+        }
+        throw new AssertionError();
+    }
+}